@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Builds the deterministic event data shared by the benchmarks.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.util.Random;
+
+final class BenchmarkSequences {
+
+    private static final int TICKS_PER_EVENT = 24;
+
+    private BenchmarkSequences() {
+    }
+
+    // alternating note on/off pairs on a channel derived from the seed with a tempo change every 64 events
+    static MidiEvent[] createEvents(int numEvents, int seed) {
+        Random random = new Random(seed);
+        int channel = seed & 0x0F;
+        MidiEvent[] events = new MidiEvent[numEvents];
+        long tick = 0;
+        for (int i = 0; i < numEvents; i++) {
+            MidiMessage message;
+            if (i % 64 == 0) {
+                message = tempoMessage(100 + random.nextInt(80));
+            } else if ((i & 1) == 0) {
+                message = ChannelMessage.uncheckedNoteOn(channel, 36 + random.nextInt(48), 1 + random.nextInt(126));
+            } else {
+                message = ChannelMessage.uncheckedNoteOff(channel, 36 + random.nextInt(48), 64);
+            }
+            events[i] = new MidiEvent(message, tick);
+            tick += random.nextInt(2 * TICKS_PER_EVENT);
+        }
+        return events;
+    }
+
+    private static MetaMessage tempoMessage(int bpm) {
+        try {
+            return MetaMessage.tempoMessage(bpm);
+        } catch (MidiException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    static Sequence createSequence(int numTracks, int numEvents, Track.Storage storage) {
+        Sequence sequence = new Sequence(480);
+        int eventsPerTrack = numEvents / numTracks;
+        for (int i = 0; i < numTracks; i++) {
+            sequence.createTrack(storage).addAll(createEvents(eventsPerTrack, i), 0, eventsPerTrack);
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Measures encoding short and long meta messages.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetaMessageBenchmark {
+
+    @Param({"TEMPO", "TEXT_16", "TEXT_1024"})
+    public String message;
+
+    private MetaMessage metaMessage;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() throws MidiException {
+        if (message.equals("TEMPO")) {
+            metaMessage = MetaMessage.tempoMessage(120);
+        } else {
+            char[] text = new char[Integer.parseInt(message.substring("TEXT_".length()))];
+            Arrays.fill(text, 'a');
+            metaMessage = MetaMessage.textMessage(new String(text));
+        }
+        buffer = ByteBuffer.allocate(metaMessage.getLength());
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return metaMessage.toBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer writeToBuffer() {
+        buffer.clear();
+        metaMessage.writeTo(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public int getLength() {
+        return metaMessage.getLength();
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Measures writing whole sequences, from a single small track up to 64 tracks holding 10M events,
+ * to a stream and to a channel that discard their output.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class MidiFileWriterBenchmark {
+
+    // <tracks>x<total events>
+    @Param({"1x1000", "16x100000", "64x1000000", "64x10000000"})
+    public String shape;
+
+    @Param({"OBJECTS", "PACKED"})
+    public Track.Storage storage;
+
+    private Sequence sequence;
+
+    @Setup
+    public void setUp() {
+        int separator = shape.indexOf('x');
+        int numTracks = Integer.parseInt(shape.substring(0, separator));
+        int numEvents = Integer.parseInt(shape.substring(separator + 1));
+        sequence = BenchmarkSequences.createSequence(numTracks, numEvents, storage);
+    }
+
+    @Benchmark
+    public long writeToStream() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        MidiFileWriter.write(sequence, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long writeToChannel() throws IOException {
+        CountingChannel channel = new CountingChannel();
+        MidiFileWriter.write(sequence, channel);
+        return channel.count;
+    }
+
+    @Benchmark
+    public long writeParallel() throws IOException {
+        CountingChannel channel = new CountingChannel();
+        MidiFileWriter.writeParallel(sequence, channel);
+        return channel.count;
+    }
+
+    @Benchmark
+    public long writeRunningStatus() throws IOException {
+        CountingChannel channel = new CountingChannel();
+        MidiFileWriter.write(sequence, channel, MidiFileWriter.Option.RUNNING_STATUS);
+        return channel.count;
+    }
+
+    @Benchmark
+    public long writeFormatZero() throws IOException {
+        CountingChannel channel = new CountingChannel();
+        MidiFileWriter.writeFormatZero(sequence, channel);
+        return channel.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private static class CountingChannel implements WritableByteChannel {
+        long count;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            count += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Measures building a track in time order and in shuffled order, reading its encoded length and scanning its events.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numEvents;
+
+    @Param({"OBJECTS", "PACKED", "CHUNKED"})
+    public Track.Storage storage;
+
+    private MidiEvent[] inOrder;
+    private MidiEvent[] outOfOrder;
+    private Track track;
+
+    @Setup
+    public void setUp() {
+        inOrder = BenchmarkSequences.createEvents(numEvents, 0);
+        outOfOrder = inOrder.clone();
+        Random random = new Random(42);
+        for (int i = outOfOrder.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            MidiEvent tmp = outOfOrder[i];
+            outOfOrder[i] = outOfOrder[j];
+            outOfOrder[j] = tmp;
+        }
+        track = new Track(storage);
+        for (MidiEvent event : inOrder) {
+            track.add(event);
+        }
+    }
+
+    @Benchmark
+    public Track addInOrder() {
+        Track track = new Track(storage);
+        for (MidiEvent event : inOrder) {
+            track.add(event);
+        }
+        return track;
+    }
+
+    @Benchmark
+    public Track addOutOfOrder() {
+        Track track = new Track(storage);
+        for (MidiEvent event : outOfOrder) {
+            track.add(event);
+        }
+        return track;
+    }
+
+    @Benchmark
+    public int getLength() {
+        return track.getLength();
+    }
+
+    @Benchmark
+    public long scanWithGet() {
+        long sum = 0;
+        int numEvents = track.size();
+        for (int i = 0; i < numEvents; i++) {
+            byte[] data = track.get(i).getMessage().getData();
+            sum += data.length > 1 ? data[1] : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long scanWithCursor() {
+        long sum = 0;
+        TrackCursor cursor = track.cursor();
+        while (cursor.next()) {
+            sum += cursor.data1();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Measures variable length field encoding and decoding over a mix of one to four byte values.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableLengthFieldBenchmark {
+
+    private static final int NUM_VALUES = 1024;
+
+    private final long[] values = new long[NUM_VALUES];
+    private final byte[] array = new byte[NUM_VALUES * MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_BYTES];
+    private final ByteBuffer buffer = ByteBuffer.allocate(NUM_VALUES * MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_BYTES);
+    private ByteBuffer encoded;
+
+    // mostly short delta times, like real tracks, with some longer values mixed in
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < NUM_VALUES; i++) {
+            int bits = random.nextInt(8) == 0 ? 28 : 10;
+            values[i] = random.nextInt(1 << bits);
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(NUM_VALUES * MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_BYTES);
+        for (long value : values) {
+            MidiFileUtils.writeVariableLengthField(value, encoded);
+        }
+        encoded.flip();
+        this.encoded = encoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VALUES)
+    public int byteLength() {
+        int length = 0;
+        for (long value : values) {
+            length += MidiFileUtils.getVariableLengthFieldByteLength(value);
+        }
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VALUES)
+    public int writeToArray() {
+        int offset = 0;
+        for (long value : values) {
+            offset += MidiFileUtils.writeVariableLengthField(value, array, offset);
+        }
+        return offset;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VALUES)
+    public int writeToBuffer() {
+        buffer.clear();
+        for (long value : values) {
+            MidiFileUtils.writeVariableLengthField(value, buffer);
+        }
+        return buffer.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VALUES)
+    public long read() throws MidiException {
+        ByteBuffer src = encoded.duplicate();
+        long sum = 0;
+        while (src.hasRemaining()) {
+            sum += MidiFileUtils.readVariableLengthField(src);
+        }
+        return sum;
+    }
+}
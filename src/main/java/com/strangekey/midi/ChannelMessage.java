@@ -7,52 +7,132 @@
  */
 package com.strangekey.midi;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class ChannelMessage implements MidiMessage {
 
-    private byte[] data;
+    private static final int NUM_TYPES = 8;
+    private static final int TWO_DATA_BYTES_TABLE_SIZE = 16 * 128 * 128;
+    private static final int ONE_DATA_BYTE_TABLE_SIZE = 16 * 128;
 
-    private ChannelMessage(Type type, int channel, int dataOne, int dataTwo) {
-        this(getStatusWithChannel(type, channel), dataOne, dataTwo);
-    }
-
-    private ChannelMessage(Type type, int channel, int dataOne) {
-        this(getStatusWithChannel(type, channel), dataOne);
-    }
+    private static volatile boolean interning;
+    // one lazily created table per message type, indexed by channel and data bytes
+    private static final AtomicReferenceArray<AtomicReferenceArray<ChannelMessage>> internTables = new AtomicReferenceArray<AtomicReferenceArray<ChannelMessage>>(
+            NUM_TYPES);
 
-    private ChannelMessage(int dataOne, int dataTwo, int dataThree) {
-        data = new byte[3];
-        data[0] = truncateToLeastSignificantByte(dataOne);
-        data[1] = truncateToLeastSignificantByte(dataTwo);
-        data[2] = truncateToLeastSignificantByte(dataThree);
-    }
+    // status, data bytes and length packed as [length][data two][data one][status], the only state of a message
+    private final int packed;
 
-    private ChannelMessage(int dataOne, int dataTwo) {
-        data = new byte[2];
-        data[0] = truncateToLeastSignificantByte(dataOne);
-        data[1] = truncateToLeastSignificantByte(dataTwo);
+    private ChannelMessage(int packed) {
+        this.packed = packed;
     }
 
     public static ChannelMessage noteOn(int channel, int noteNumber, int velocity) throws MidiException {
         checkNoteMessage(channel, noteNumber, velocity);
-        return new ChannelMessage(Type.NOTE_ON, channel, noteNumber, velocity);
+        return create(Type.NOTE_ON, channel, noteNumber, velocity);
     }
 
     public static ChannelMessage noteOff(int channel, int noteNumber, int velocity) throws MidiException {
         checkNoteMessage(channel, noteNumber, velocity);
-        return new ChannelMessage(Type.NOTE_OFF, channel, noteNumber, velocity);
+        return create(Type.NOTE_OFF, channel, noteNumber, velocity);
     }
 
     public static ChannelMessage polyphonicKeyPressure(int channel, int noteNumber, int pressure) throws MidiException {
         checkNoteMessage(channel, noteNumber, pressure);
-        return new ChannelMessage(Type.POLYPHONIC_KEY_PRESSURE, channel, noteNumber, pressure);
+        return create(Type.POLYPHONIC_KEY_PRESSURE, channel, noteNumber, pressure);
     }
 
     public static ChannelMessage programChange(int channel, int instrumentNumber) throws MidiException {
         checkChannel(channel);
         checkInstrumentNumber(instrumentNumber);
-        return new ChannelMessage(Type.PROGRAM_CHANGE, channel, instrumentNumber);
+        return create(Type.PROGRAM_CHANGE, channel, instrumentNumber, 0);
+    }
+
+    // non throwing variants, return null for out of range input
+
+    public static ChannelMessage tryNoteOn(int channel, int noteNumber, int velocity) {
+        return isValidNoteMessage(channel, noteNumber, velocity) ? create(Type.NOTE_ON, channel, noteNumber, velocity) : null;
+    }
+
+    public static ChannelMessage tryNoteOff(int channel, int noteNumber, int velocity) {
+        return isValidNoteMessage(channel, noteNumber, velocity) ? create(Type.NOTE_OFF, channel, noteNumber, velocity) : null;
+    }
+
+    public static ChannelMessage tryPolyphonicKeyPressure(int channel, int noteNumber, int pressure) {
+        return isValidNoteMessage(channel, noteNumber, pressure) ? create(Type.POLYPHONIC_KEY_PRESSURE, channel, noteNumber, pressure) : null;
+    }
+
+    public static ChannelMessage tryProgramChange(int channel, int instrumentNumber) {
+        return isValidChannel(channel) && !dataOutOfRange(instrumentNumber) ? create(Type.PROGRAM_CHANGE, channel, instrumentNumber, 0) : null;
+    }
+
+    // trusted variants for input that has already been validated, out of range values are truncated
+
+    public static ChannelMessage uncheckedNoteOn(int channel, int noteNumber, int velocity) {
+        return create(Type.NOTE_ON, channel, noteNumber & 0x7F, velocity & 0x7F);
+    }
+
+    public static ChannelMessage uncheckedNoteOff(int channel, int noteNumber, int velocity) {
+        return create(Type.NOTE_OFF, channel, noteNumber & 0x7F, velocity & 0x7F);
+    }
+
+    public static ChannelMessage uncheckedPolyphonicKeyPressure(int channel, int noteNumber, int pressure) {
+        return create(Type.POLYPHONIC_KEY_PRESSURE, channel, noteNumber & 0x7F, pressure & 0x7F);
+    }
+
+    public static ChannelMessage uncheckedProgramChange(int channel, int instrumentNumber) {
+        return create(Type.PROGRAM_CHANGE, channel, instrumentNumber & 0x7F, 0);
+    }
+
+    /**
+     * When enabled, the factories return one shared instance per distinct message instead of allocating a new one on
+     * every call. Messages are immutable, getData() and toBytes() return a new array on every call.
+     */
+    public static void setInterning(boolean enabled) {
+        interning = enabled;
+    }
+
+    public static boolean isInterning() {
+        return interning;
+    }
+
+    private static ChannelMessage create(Type type, int channel, int dataOne, int dataTwo) {
+        return unpack(pack(getStatusWithChannel(type, channel), dataOne, dataTwo));
+    }
+
+    private static ChannelMessage intern(int packed) {
+        int status = packed & 0xFF;
+        int dataOne = (packed >>> 8) & 0xFF;
+        int dataTwo = (packed >>> 16) & 0xFF;
+        if (status < 0x80 || status > 0xEF || dataOne > 0x7F || dataTwo > 0x7F) {
+            return new ChannelMessage(packed);
+        }
+
+        boolean twoDataBytes = getPackedLength(packed) == 3;
+        AtomicReferenceArray<ChannelMessage> table = getInternTable((status >> 4) & 0x07, twoDataBytes);
+        int channel = status & 0x0F;
+        int index = twoDataBytes ? channel << 14 | dataOne << 7 | dataTwo : channel << 7 | dataOne;
+
+        ChannelMessage message = table.get(index);
+        if (message == null) {
+            message = new ChannelMessage(packed);
+            if (!table.compareAndSet(index, null, message)) {
+                message = table.get(index);
+            }
+        }
+        return message;
+    }
+
+    private static AtomicReferenceArray<ChannelMessage> getInternTable(int typeIndex, boolean twoDataBytes) {
+        AtomicReferenceArray<ChannelMessage> table = internTables.get(typeIndex);
+        if (table == null) {
+            table = new AtomicReferenceArray<ChannelMessage>(twoDataBytes ? TWO_DATA_BYTES_TABLE_SIZE : ONE_DATA_BYTE_TABLE_SIZE);
+            if (!internTables.compareAndSet(typeIndex, null, table)) {
+                table = internTables.get(typeIndex);
+            }
+        }
+        return table;
     }
 
     private static int getStatusWithChannel(Type type, int channel) {
@@ -65,8 +145,16 @@ public class ChannelMessage implements MidiMessage {
         checkVelocity(velocity);
     }
 
+    private static boolean isValidNoteMessage(int channel, int noteNumber, int velocity) {
+        return isValidChannel(channel) && !dataOutOfRange(noteNumber) && !dataOutOfRange(velocity);
+    }
+
+    private static boolean isValidChannel(int channel) {
+        return (channel & 0xFFFFFFF0) == 0;
+    }
+
     private static void checkChannel(int channel) throws MidiException {
-        if ((channel & 0xFFFFFFF0) != 0) {
+        if (!isValidChannel(channel)) {
             throw new MidiException("Invalid channel");
         }
     }
@@ -97,31 +185,75 @@ public class ChannelMessage implements MidiMessage {
         return (byte) (data & 0xFF);
     }
 
+    static ChannelMessage unpack(int packed) {
+        return interning ? intern(packed) : new ChannelMessage(packed);
+    }
+
+    static int pack(int status, int dataOne, int dataTwo) {
+        int length = getLengthForStatus(status);
+        int packed = length << 24 | (status & 0xFF) | (dataOne & 0xFF) << 8;
+        if (length == 3) {
+            packed |= (dataTwo & 0xFF) << 16;
+        }
+        return packed;
+    }
+
+    static int getLengthForStatus(int status) {
+        int type = status & 0xF0;
+        return type == Type.PROGRAM_CHANGE.baseValue || type == Type.CHANNEL_PRESSURE.baseValue ? 2 : 3;
+    }
+
+    static int getPackedLength(int packed) {
+        return packed >>> 24;
+    }
+
+    int pack() {
+        return packed;
+    }
+
     public byte getStatus() {
-        return data[0];
+        return truncateToLeastSignificantByte(packed);
     }
 
     @Override
     public byte[] getData() {
-        return data;
+        return toBytes();
     }
 
     @Override
     public byte[] toBytes() {
-        return data;
+        byte[] bytes = new byte[getLength()];
+        writeTo(bytes, 0);
+        return bytes;
     }
 
     @Override
     public int getLength() {
-        return data.length;
+        return getPackedLength(packed);
+    }
+
+    @Override
+    public int writeTo(byte[] dst, int offset) {
+        dst[offset] = truncateToLeastSignificantByte(packed);
+        dst[offset + 1] = truncateToLeastSignificantByte(packed >>> 8);
+        if (getLength() == 3) {
+            dst[offset + 2] = truncateToLeastSignificantByte(packed >>> 16);
+        }
+        return getLength();
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.put(truncateToLeastSignificantByte(packed));
+        dst.put(truncateToLeastSignificantByte(packed >>> 8));
+        if (getLength() == 3) {
+            dst.put(truncateToLeastSignificantByte(packed >>> 16));
+        }
     }
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + Arrays.hashCode(this.data);
-        return result;
+        return packed;
     }
 
     @Override
@@ -133,9 +265,7 @@ public class ChannelMessage implements MidiMessage {
         if (getClass() != obj.getClass())
             return false;
         ChannelMessage other = (ChannelMessage) obj;
-        if (!Arrays.equals(this.data, other.data))
-            return false;
-        return true;
+        return this.packed == other.packed;
     }
 
     enum Type {
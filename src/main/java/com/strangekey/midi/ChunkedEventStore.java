@@ -0,0 +1,416 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Event store made of a B+ tree whose leaves are fixed capacity arrays of events and whose inner nodes count the events
+ * below them. Positional get, add and remove follow a single path from the root, so edits anywhere in a long track only
+ * shift the events of one leaf instead of every later event.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+class ChunkedEventStore implements EventStore {
+
+    static final int LEAF_CAPACITY = 256;
+    static final int BRANCH_CAPACITY = 64;
+    // merges adding more than 1/MERGE_REBUILD_RATIO of the store rebuild it instead of inserting event by event
+    static final int MERGE_REBUILD_RATIO = 32;
+
+    private Node root;
+
+    ChunkedEventStore() {
+        root = new Leaf();
+    }
+
+    @Override
+    public int size() {
+        return root.size;
+    }
+
+    @Override
+    public MidiEvent get(int index) {
+        checkIndex(index);
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int child = 0;
+            while (index >= branch.children[child].size) {
+                index -= branch.children[child++].size;
+            }
+            node = branch.children[child];
+        }
+        return ((Leaf) node).events[index];
+    }
+
+    @Override
+    public long getTimeIndex(int index) {
+        return get(index).getTimeIndex();
+    }
+
+    @Override
+    public int getMessageLength(int index) {
+        return get(index).getMessage().getLength();
+    }
+
+    @Override
+    public void load(int index, TrackCursor cursor) {
+        MidiEvent event = get(index);
+        cursor.setMessage(event.getTimeIndex(), event.getMessage());
+    }
+
+    @Override
+    public void add(MidiEvent event) {
+        add(root.size, event);
+    }
+
+    @Override
+    public void add(int index, MidiEvent event) {
+        if (index < 0 || index > root.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + root.size);
+        }
+        Node split = root.add(index, event);
+        if (split != null) {
+            Branch branch = new Branch();
+            branch.children[0] = root;
+            branch.children[1] = split;
+            branch.numChildren = 2;
+            branch.size = root.size + split.size;
+            root = branch;
+        }
+    }
+
+    @Override
+    public void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > root.size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + root.size);
+        }
+        if (fromIndex == toIndex) {
+            return;
+        }
+        root.removeRange(fromIndex, toIndex);
+        while (root instanceof Branch && ((Branch) root).numChildren <= 1) {
+            Branch branch = (Branch) root;
+            root = branch.numChildren == 1 ? branch.children[0] : new Leaf();
+        }
+    }
+
+    @Override
+    public void merge(MidiEvent[] sortedEvents, int fromIndex, int toIndex) {
+        int size = root.size;
+        if ((long) (toIndex - fromIndex) * MERGE_REBUILD_RATIO < size) {
+            // each event goes after the events already stored on its time index, and after the ones merged before it
+            for (int j = fromIndex; j < toIndex; j++) {
+                add(root.upperBound(sortedEvents[j].getTimeIndex()), sortedEvents[j]);
+            }
+            return;
+        }
+
+        MidiEvent[] events = new MidiEvent[size + toIndex - fromIndex];
+        root.copyTo(events, 0);
+
+        int i = size - 1;
+        int j = toIndex - 1;
+        for (int k = events.length - 1; j >= fromIndex; k--) {
+            if (i >= 0 && events[i].getTimeIndex() > sortedEvents[j].getTimeIndex()) {
+                events[k] = events[i--];
+            } else {
+                events[k] = sortedEvents[j--];
+            }
+        }
+        root = build(events, events.length);
+    }
+
+    // bulk loads full leaves and branches bottom up
+    private static Node build(MidiEvent[] events, int size) {
+        int numNodes = (size + LEAF_CAPACITY - 1) / LEAF_CAPACITY;
+        if (numNodes <= 1) {
+            Leaf leaf = new Leaf();
+            System.arraycopy(events, 0, leaf.events, 0, size);
+            leaf.size = size;
+            return leaf;
+        }
+
+        Node[] nodes = new Node[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            Leaf leaf = new Leaf();
+            leaf.size = Math.min(LEAF_CAPACITY, size - i * LEAF_CAPACITY);
+            System.arraycopy(events, i * LEAF_CAPACITY, leaf.events, 0, leaf.size);
+            nodes[i] = leaf;
+        }
+
+        while (numNodes > 1) {
+            int numParents = (numNodes + BRANCH_CAPACITY - 1) / BRANCH_CAPACITY;
+            for (int i = 0; i < numParents; i++) {
+                Branch branch = new Branch();
+                branch.numChildren = Math.min(BRANCH_CAPACITY, numNodes - i * BRANCH_CAPACITY);
+                System.arraycopy(nodes, i * BRANCH_CAPACITY, branch.children, 0, branch.numChildren);
+                branch.size = branch.countEvents();
+                nodes[i] = branch;
+            }
+            numNodes = numParents;
+        }
+        return nodes[0];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= root.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + root.size);
+        }
+    }
+
+    private abstract static class Node {
+        int size;
+
+        // inserts at index and returns the new right sibling if the node had to split, otherwise null
+        abstract Node add(int index, MidiEvent event);
+
+        abstract void removeRange(int fromIndex, int toIndex);
+
+        // index after the last event with a time index less than or equal to timeIndex
+        abstract int upperBound(long timeIndex);
+
+        abstract MidiEvent first();
+
+        abstract int copyTo(MidiEvent[] dst, int offset);
+
+        abstract boolean isUnderfull();
+
+        abstract boolean canMerge(Node right);
+
+        abstract void merge(Node right);
+    }
+
+    private static class Leaf extends Node {
+        final MidiEvent[] events = new MidiEvent[LEAF_CAPACITY];
+
+        @Override
+        Node add(int index, MidiEvent event) {
+            if (size < LEAF_CAPACITY) {
+                System.arraycopy(events, index, events, index + 1, size - index);
+                events[index] = event;
+                size++;
+                return null;
+            }
+
+            // appending starts a new leaf and keeps this one full, other inserts split the leaf in half
+            Leaf right = new Leaf();
+            int splitIndex = index == size ? size : size / 2;
+            right.size = size - splitIndex;
+            System.arraycopy(events, splitIndex, right.events, 0, right.size);
+            for (int i = splitIndex; i < size; i++) {
+                events[i] = null;
+            }
+            size = splitIndex;
+
+            if (index <= splitIndex && index < LEAF_CAPACITY) {
+                add(index, event);
+            } else {
+                right.add(index - splitIndex, event);
+            }
+            return right;
+        }
+
+        @Override
+        void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(events, toIndex, events, fromIndex, size - toIndex);
+            int newSize = size - (toIndex - fromIndex);
+            for (int i = newSize; i < size; i++) {
+                events[i] = null;
+            }
+            size = newSize;
+        }
+
+        @Override
+        int upperBound(long timeIndex) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (events[middle].getTimeIndex() <= timeIndex) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        MidiEvent first() {
+            return events[0];
+        }
+
+        @Override
+        int copyTo(MidiEvent[] dst, int offset) {
+            System.arraycopy(events, 0, dst, offset, size);
+            return offset + size;
+        }
+
+        @Override
+        boolean isUnderfull() {
+            return size < LEAF_CAPACITY / 4;
+        }
+
+        @Override
+        boolean canMerge(Node right) {
+            return size + right.size <= LEAF_CAPACITY;
+        }
+
+        @Override
+        void merge(Node right) {
+            Leaf leaf = (Leaf) right;
+            System.arraycopy(leaf.events, 0, events, size, leaf.size);
+            size += leaf.size;
+        }
+    }
+
+    private static class Branch extends Node {
+        final Node[] children = new Node[BRANCH_CAPACITY];
+        int numChildren;
+
+        @Override
+        Node add(int index, MidiEvent event) {
+            int child = 0;
+            while (child < numChildren - 1 && index > children[child].size) {
+                index -= children[child++].size;
+            }
+            // an index at the boundary of two children goes to the left one, where it is an append
+            Node split = children[child].add(index, event);
+            size++;
+            if (split == null) {
+                return null;
+            }
+            if (numChildren < BRANCH_CAPACITY) {
+                insertChild(child + 1, split);
+                return null;
+            }
+
+            // like leaves, a split caused by appending to the last child starts a new branch
+            Branch right = new Branch();
+            int splitIndex = child == numChildren - 1 ? numChildren : numChildren / 2;
+            right.numChildren = numChildren - splitIndex;
+            System.arraycopy(children, splitIndex, right.children, 0, right.numChildren);
+            for (int i = splitIndex; i < numChildren; i++) {
+                children[i] = null;
+            }
+            numChildren = splitIndex;
+
+            if (child + 1 <= splitIndex && numChildren < BRANCH_CAPACITY) {
+                insertChild(child + 1, split);
+            } else {
+                right.insertChild(child + 1 - splitIndex, split);
+            }
+            size = countEvents();
+            right.size = right.countEvents();
+            return right;
+        }
+
+        private int countEvents() {
+            int count = 0;
+            for (int i = 0; i < numChildren; i++) {
+                count += children[i].size;
+            }
+            return count;
+        }
+
+        private void insertChild(int index, Node child) {
+            System.arraycopy(children, index, children, index + 1, numChildren - index);
+            children[index] = child;
+            numChildren++;
+        }
+
+        private void removeChild(int index) {
+            System.arraycopy(children, index + 1, children, index, numChildren - index - 1);
+            children[--numChildren] = null;
+        }
+
+        @Override
+        void removeRange(int fromIndex, int toIndex) {
+            int child = 0;
+            int start = 0;
+            while (start + children[child].size <= fromIndex) {
+                start += children[child++].size;
+            }
+
+            // children inside the range are unlinked whole, only the ones at its two ends are cut
+            int first = child;
+            int last = -1;
+            while (child < numChildren && start < toIndex) {
+                Node node = children[child];
+                int end = start + node.size;
+                if (fromIndex <= start && end <= toIndex) {
+                    removeChild(child);
+                } else {
+                    node.removeRange(Math.max(fromIndex, start) - start, Math.min(toIndex, end) - start);
+                    last = child++;
+                }
+                start = end;
+            }
+            size -= toIndex - fromIndex;
+
+            if (last > first) {
+                rebalance(last);
+            }
+            rebalance(first);
+        }
+
+        private void rebalance(int child) {
+            if (child >= numChildren) {
+                return;
+            }
+            Node node = children[child];
+            if (node.size == 0) {
+                removeChild(child);
+            } else if (node.isUnderfull()) {
+                if (child + 1 < numChildren && node.canMerge(children[child + 1])) {
+                    node.merge(children[child + 1]);
+                    removeChild(child + 1);
+                } else if (child > 0 && children[child - 1].canMerge(node)) {
+                    children[child - 1].merge(node);
+                    removeChild(child);
+                }
+            }
+        }
+
+        @Override
+        int upperBound(long timeIndex) {
+            int index = 0;
+            int child = 0;
+            while (child < numChildren - 1 && children[child + 1].first().getTimeIndex() <= timeIndex) {
+                index += children[child++].size;
+            }
+            return index + children[child].upperBound(timeIndex);
+        }
+
+        @Override
+        MidiEvent first() {
+            return children[0].first();
+        }
+
+        @Override
+        int copyTo(MidiEvent[] dst, int offset) {
+            for (int i = 0; i < numChildren; i++) {
+                offset = children[i].copyTo(dst, offset);
+            }
+            return offset;
+        }
+
+        @Override
+        boolean isUnderfull() {
+            return numChildren < BRANCH_CAPACITY / 4;
+        }
+
+        @Override
+        boolean canMerge(Node right) {
+            return numChildren + ((Branch) right).numChildren <= BRANCH_CAPACITY;
+        }
+
+        @Override
+        void merge(Node right) {
+            Branch branch = (Branch) right;
+            System.arraycopy(branch.children, 0, children, numChildren, branch.numChildren);
+            numChildren += branch.numChildren;
+            size += branch.size;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Backing storage for the events of a track, kept sorted by time index. The end of track event is not part of the store.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+interface EventStore {
+
+    int size();
+
+    MidiEvent get(int index);
+
+    long getTimeIndex(int index);
+
+    int getMessageLength(int index);
+
+    /**
+     * Loads the event at index into the cursor without creating event objects where the store allows it.
+     */
+    void load(int index, TrackCursor cursor);
+
+    void add(MidiEvent event);
+
+    void add(int index, MidiEvent event);
+
+    void removeRange(int fromIndex, int toIndex);
+
+    /**
+     * Merges events sorted by time index into the store in a single pass. Existing events stay ahead of new events with
+     * the same time index.
+     */
+    void merge(MidiEvent[] sortedEvents, int fromIndex, int toIndex);
+}
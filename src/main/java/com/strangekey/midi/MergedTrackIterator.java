@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Iterates the events of all tracks of a sequence in global time index order. The tracks are already sorted, so this
+ * is a k-way merge over a binary min heap of track positions, O(log k) per event and without copying events into a
+ * combined list. Events on the same time index come out in track order, and in their track's order within a track.
+ * Every track's end of track event is part of the stream. Tracks must not be modified while iterating.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class MergedTrackIterator implements Iterator<MidiEvent> {
+
+    private final Track[] tracks;
+    // next event index of every track
+    private final int[] positions;
+    // time index of the next event of every track
+    private final long[] nextTimeIndexes;
+    // track indexes ordered by the time index of their next event, then by track index
+    private final int[] heap;
+    private int heapSize;
+    private int trackIndex = -1;
+
+    MergedTrackIterator(Sequence sequence) {
+        int numTracks = sequence.getNumTracks();
+        tracks = new Track[numTracks];
+        positions = new int[numTracks];
+        nextTimeIndexes = new long[numTracks];
+        heap = new int[numTracks];
+        for (int i = 0; i < numTracks; i++) {
+            tracks[i] = sequence.getTrackAt(i);
+            nextTimeIndexes[i] = tracks[i].getTimeIndex(0);
+            heap[heapSize++] = i;
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return heapSize > 0;
+    }
+
+    @Override
+    public MidiEvent next() {
+        if (heapSize == 0) {
+            throw new NoSuchElementException();
+        }
+        int track = heap[0];
+        MidiEvent event = tracks[track].get(positions[track]++);
+        if (positions[track] < tracks[track].size()) {
+            nextTimeIndexes[track] = tracks[track].getTimeIndex(positions[track]);
+        } else {
+            heap[0] = heap[--heapSize];
+        }
+        if (heapSize > 0) {
+            siftDown(0);
+        }
+        trackIndex = track;
+        return event;
+    }
+
+    /**
+     * @return the index of the track the last event returned by next() belongs to
+     */
+    public int getTrackIndex() {
+        if (trackIndex < 0) {
+            throw new IllegalStateException();
+        }
+        return trackIndex;
+    }
+
+    /**
+     * @return whether the last event returned by next() is the end of track event of its track
+     */
+    public boolean isEndOfTrack() {
+        int track = getTrackIndex();
+        return positions[track] == tracks[track].size();
+    }
+
+    private void siftDown(int index) {
+        int track = heap[index];
+        long timeIndex = nextTimeIndexes[track];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && isBefore(heap[right], heap[child])) {
+                child = right;
+            }
+            int childTrack = heap[child];
+            long childTimeIndex = nextTimeIndexes[childTrack];
+            if (timeIndex < childTimeIndex || (timeIndex == childTimeIndex && track < childTrack)) {
+                break;
+            }
+            heap[index] = childTrack;
+            index = child;
+        }
+        heap[index] = track;
+    }
+
+    private boolean isBefore(int trackOne, int trackTwo) {
+        long timeIndexOne = nextTimeIndexes[trackOne];
+        long timeIndexTwo = nextTimeIndexes[trackTwo];
+        return timeIndexOne < timeIndexTwo || (timeIndexOne == timeIndexTwo && trackOne < trackTwo);
+    }
+}
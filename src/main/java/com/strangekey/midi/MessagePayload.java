@@ -0,0 +1,72 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Data bytes of a meta or sysex message. A payload read from a file is kept as a view (e.g. over a mapped file) and
+ * only copied into an array if getData() is called, reading and writing use the view directly.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.nio.ByteBuffer;
+
+final class MessagePayload {
+
+    // racing threads may each copy the view once, the arrays are equal and the volatile write publishes a complete one
+    private volatile byte[] data;
+    private final ByteBuffer view;
+    private final int length;
+
+    MessagePayload(byte[] data) {
+        this.data = data;
+        this.view = null;
+        this.length = data.length;
+    }
+
+    MessagePayload(ByteBuffer view) {
+        this.view = view;
+        this.length = view.remaining();
+    }
+
+    int length() {
+        return length;
+    }
+
+    // true until the view has been copied into an array
+    boolean isView() {
+        return data == null;
+    }
+
+    byte[] getData() {
+        byte[] data = this.data;
+        if (data == null) {
+            data = new byte[length];
+            view.duplicate().get(data);
+            this.data = data;
+        }
+        return data;
+    }
+
+    byte get(int index) {
+        byte[] data = this.data;
+        return data != null ? data[index] : view.get(view.position() + index);
+    }
+
+    void copyTo(byte[] dst, int offset) {
+        byte[] data = this.data;
+        if (data != null) {
+            System.arraycopy(data, 0, dst, offset, length);
+        } else {
+            view.duplicate().get(dst, offset, length);
+        }
+    }
+
+    void copyTo(ByteBuffer dst) {
+        byte[] data = this.data;
+        if (data != null) {
+            dst.put(data);
+        } else {
+            dst.put(view.duplicate());
+        }
+    }
+}
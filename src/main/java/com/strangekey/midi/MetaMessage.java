@@ -7,6 +7,8 @@
  */
 package com.strangekey.midi;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class MetaMessage implements MidiMessage {
@@ -17,13 +19,28 @@ public class MetaMessage implements MidiMessage {
     private static final int MIDI_CLOCKS_PER_METRONOME_CLICK = 1;
     private static final int THIRTY_SECOND_NOTES_PER_QUARTER_NOTE = 8;
     private byte type;
-    private byte[] data;
+    private MessagePayload payload;
     private int length;
+    private int messageLength;
+    // the complete wire encoding, built on first use and shared by toBytes() and the writeTo methods
+    private volatile byte[] encoded;
 
     private MetaMessage(Type type, byte[] data) {
-        this.type = type.value;
-        this.data = data;
+        this(type.value, data);
+    }
+
+    MetaMessage(byte type, byte[] data) {
+        this.type = type;
+        this.payload = new MessagePayload(data);
         this.length = data.length;
+        this.messageLength = getTotalMessageLength(getLengthNumBytes());
+    }
+
+    MetaMessage(byte type, ByteBuffer payload) {
+        this.type = type;
+        this.payload = new MessagePayload(payload);
+        this.length = this.payload.length();
+        this.messageLength = getTotalMessageLength(getLengthNumBytes());
     }
 
     public static MetaMessage tempoMessage(int bpm) throws MidiException {
@@ -81,27 +98,72 @@ public class MetaMessage implements MidiMessage {
 
     @Override
     public byte[] getData() {
-        return data;
+        return payload.getData();
     }
 
     public int getLength() {
-        return getTotalMessageLength(getLengthNumBytes());
+        return messageLength;
+    }
+
+    MessagePayload getPayload() {
+        return payload;
     }
 
     private int getTotalMessageLength(int lengthNumBytes) {
         return 1 + 1 + length + lengthNumBytes;
     }
 
+    /**
+     * Returns the cached encoding, which is shared between calls and must be treated as immutable.
+     */
     @Override
     public byte[] toBytes() {
-        int lengthNumBytes = getLengthNumBytes();
-        int size = getTotalMessageLength(lengthNumBytes);
-        byte[] fileBytes = new byte[size];
-        fileBytes[0] = META_STATUS_BYTE;
-        fileBytes[1] = type;
-        System.arraycopy(MidiFileUtils.getVariableLengthFieldBytes(length), 0, fileBytes, 2, lengthNumBytes);
-        System.arraycopy(data, 0, fileBytes, 3, length);
-        return fileBytes;
+        return getEncoded();
+    }
+
+    @Override
+    public int writeTo(byte[] dst, int offset) {
+        if (offset < 0 || dst.length - offset < messageLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (encoded == null && payload.isView()) {
+            // a payload still in the file is written from there instead of being copied into a cached encoding
+            dst[offset] = META_STATUS_BYTE;
+            dst[offset + 1] = type;
+            payload.copyTo(dst, offset + 2 + MidiFileUtils.writeVariableLengthField(length, dst, offset + 2));
+        } else {
+            System.arraycopy(getEncoded(), 0, dst, offset, messageLength);
+        }
+        return messageLength;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        if (dst.remaining() < messageLength) {
+            throw new BufferOverflowException();
+        }
+        if (encoded == null && payload.isView()) {
+            dst.put(META_STATUS_BYTE);
+            dst.put(type);
+            MidiFileUtils.writeVariableLengthField(length, dst);
+            payload.copyTo(dst);
+        } else {
+            dst.put(getEncoded());
+        }
+    }
+
+    // racing threads may each encode once, the arrays are equal and the volatile write publishes a complete one
+    private byte[] getEncoded() {
+        byte[] encoded = this.encoded;
+        if (encoded == null) {
+            encoded = new byte[messageLength];
+            encoded[0] = META_STATUS_BYTE;
+            encoded[1] = type;
+            int offset = 2 + MidiFileUtils.writeVariableLengthField(length, encoded, 2);
+            payload.copyTo(encoded, offset);
+            this.encoded = encoded;
+        }
+        return encoded;
     }
 
     private int getLengthNumBytes() {
@@ -112,7 +174,7 @@ public class MetaMessage implements MidiMessage {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + Arrays.hashCode(this.data);
+        result = prime * result + Arrays.hashCode(getData());
         result = prime * result + this.length;
         result = prime * result + this.type;
         return result;
@@ -127,7 +189,7 @@ public class MetaMessage implements MidiMessage {
         if (getClass() != obj.getClass())
             return false;
         MetaMessage other = (MetaMessage) obj;
-        if (!Arrays.equals(this.data, other.data))
+        if (!Arrays.equals(getData(), other.getData()))
             return false;
         if (this.length != other.length)
             return false;
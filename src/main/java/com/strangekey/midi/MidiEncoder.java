@@ -0,0 +1,294 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Encodes midi file data into a reusable scratch buffer which is flushed to the output stream in large chunks, so
+ * writing events does not allocate intermediate arrays. Messages write themselves into the buffer through
+ * MidiMessage.writeTo.
+ *
+ * Channel messages can optionally be written with running status (see MidiFileWriter.Option), in which case
+ * resetRunningStatus() must be called at the start of every track.
+ *
+ * The buffer is flushed either to an output stream or to a channel. An encoder created over a bare ByteBuffer has
+ * nowhere to flush to, the buffer must be sized for everything written.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+class MidiEncoder {
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_BUFFER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    // bytes handed to the stream or channel so far
+    private long flushed;
+
+    private boolean runningStatus;
+    private boolean noteOffAsNoteOn;
+    private int lastStatus;
+
+    MidiEncoder(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    MidiEncoder(OutputStream out, int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer too small");
+        }
+        this.out = out;
+        this.channel = null;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    MidiEncoder(WritableByteChannel channel, int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer too small");
+        }
+        this.out = null;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    MidiEncoder(ByteBuffer buffer) {
+        this.out = null;
+        this.channel = null;
+        this.buffer = buffer;
+    }
+
+    MidiEncoder setOptions(MidiFileWriter.Option... options) {
+        runningStatus = contains(options, MidiFileWriter.Option.RUNNING_STATUS);
+        noteOffAsNoteOn = contains(options, MidiFileWriter.Option.NOTE_OFF_AS_ZERO_VELOCITY_NOTE_ON);
+        return this;
+    }
+
+    private static boolean contains(MidiFileWriter.Option[] options, MidiFileWriter.Option option) {
+        for (MidiFileWriter.Option candidate : options) {
+            if (candidate == option) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void resetRunningStatus() {
+        lastStatus = 0;
+    }
+
+    int getEncodedLength(Track track) {
+        return getEncodedLength(track, runningStatus, noteOffAsNoteOn);
+    }
+
+    static int getEncodedLength(Track track, MidiFileWriter.Option... options) {
+        return getEncodedLength(track, contains(options, MidiFileWriter.Option.RUNNING_STATUS),
+                contains(options, MidiFileWriter.Option.NOTE_OFF_AS_ZERO_VELOCITY_NOTE_ON));
+    }
+
+    // the encoded track length, less the status bytes running status will omit
+    private static int getEncodedLength(Track track, boolean runningStatus, boolean noteOffAsNoteOn) {
+        int length = track.getLength();
+        if (!runningStatus) {
+            return length;
+        }
+
+        int lastStatus = 0;
+        TrackCursor cursor = track.cursor();
+        while (cursor.next()) {
+            if (isChannelMessage(cursor)) {
+                int status = getStatus(cursor.status(), noteOffAsNoteOn);
+                if (status == lastStatus) {
+                    length--;
+                }
+                lastStatus = status;
+            } else {
+                lastStatus = 0;
+            }
+        }
+        return length;
+    }
+
+    // the encoded length of all events of the sequence merged into one track that ends with a single end of track event
+    static int getMergedEncodedLength(Sequence sequence, MidiFileWriter.Option... options) {
+        boolean runningStatus = contains(options, MidiFileWriter.Option.RUNNING_STATUS);
+        boolean noteOffAsNoteOn = contains(options, MidiFileWriter.Option.NOTE_OFF_AS_ZERO_VELOCITY_NOTE_ON);
+
+        int length = 0;
+        int lastStatus = 0;
+        long previousTimeIndex = 0;
+        MergedTrackIterator events = sequence.mergedIterator();
+        while (events.hasNext()) {
+            MidiEvent event = events.next();
+            if (events.isEndOfTrack()) {
+                continue;
+            }
+            MidiMessage message = event.getMessage();
+            length += MidiFileUtils.getVariableLengthFieldByteLength(event.getTimeIndex() - previousTimeIndex) + message.getLength();
+            previousTimeIndex = event.getTimeIndex();
+            if (message instanceof ChannelMessage) {
+                int status = getStatus(((ChannelMessage) message).getStatus() & 0xFF, noteOffAsNoteOn);
+                if (runningStatus && status == lastStatus) {
+                    length--;
+                }
+                lastStatus = status;
+            } else {
+                lastStatus = 0;
+            }
+        }
+        long endOfTrackDeltaTime = sequence.getTimeIndexLength() - previousTimeIndex;
+        return length + MidiFileUtils.getVariableLengthFieldByteLength(endOfTrackDeltaTime) + Track.endOfTrackMessage().getLength();
+    }
+
+    // messages of other types are written through writeMessage, even if their first byte looks like a channel status
+    private static boolean isChannelMessage(TrackCursor cursor) {
+        return cursor.isChannelMessage() && cursor.getOtherMessage() == null;
+    }
+
+    private static int getStatus(int status, boolean noteOffAsNoteOn) {
+        if (noteOffAsNoteOn && (status & 0xF0) == ChannelMessage.Type.NOTE_OFF.baseValue) {
+            return ChannelMessage.Type.NOTE_ON.baseValue | (status & 0x0F);
+        }
+        return status;
+    }
+
+    void writeByte(int value) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+    }
+
+    void writeShort(int value) throws IOException {
+        ensureRemaining(2);
+        buffer.putShort((short) value);
+    }
+
+    void writeInt(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    void writeVariableLengthField(long value) throws IOException {
+        ensureRemaining(MidiFileUtils.getVariableLengthFieldByteLength(value));
+        MidiFileUtils.writeVariableLengthField(value, buffer);
+    }
+
+    void writeMessage(MidiMessage message) throws IOException {
+        if (message instanceof ChannelMessage) {
+            if (runningStatus || noteOffAsNoteOn) {
+                writeChannelMessage((ChannelMessage) message);
+                return;
+            }
+        } else {
+            lastStatus = 0;
+        }
+
+        int length = message.getLength();
+        if (length <= buffer.capacity()) {
+            ensureRemaining(length);
+            message.writeTo(buffer);
+        } else {
+            writeBytes(message.toBytes());
+        }
+    }
+
+    /**
+     * Writes the delta time and message of the event under the cursor.
+     */
+    void writeEvent(TrackCursor cursor) throws IOException {
+        writeVariableLengthField(cursor.deltaTick());
+        if (cursor.getMessage() != null) {
+            writeMessage(cursor.getMessage());
+        } else if (cursor.isChannelMessage()) {
+            writeChannelMessage(cursor.status(), cursor.data1(), cursor.data2());
+        } else {
+            lastStatus = 0;
+            ensureRemaining(2);
+            buffer.put((byte) cursor.status());
+            if (cursor.isMetaMessage()) {
+                buffer.put((byte) cursor.metaType());
+            }
+            writeVariableLengthField(cursor.payloadLength());
+            writeBytes(cursor.getPayloadArray(), cursor.getPayloadOffset(), cursor.payloadLength());
+        }
+    }
+
+    private void writeChannelMessage(ChannelMessage message) throws IOException {
+        int packed = message.pack();
+        writeChannelMessage(packed & 0xFF, packed >>> 8 & 0xFF, packed >>> 16 & 0xFF);
+    }
+
+    private void writeChannelMessage(int messageStatus, int dataOne, int dataTwo) throws IOException {
+        int status = getStatus(messageStatus, noteOffAsNoteOn);
+        int length = ChannelMessage.getLengthForStatus(messageStatus);
+        ensureRemaining(length);
+
+        if (!runningStatus || status != lastStatus) {
+            buffer.put((byte) status);
+        }
+        buffer.put((byte) dataOne);
+        if (length == 3) {
+            buffer.put(status == messageStatus ? (byte) dataTwo : 0);
+        }
+
+        if (runningStatus) {
+            lastStatus = status;
+        }
+    }
+
+    void flush() throws IOException {
+        if (out != null || channel != null) {
+            drain();
+        }
+    }
+
+    long getBytesWritten() {
+        return flushed + buffer.position();
+    }
+
+    private void ensureRemaining(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (out == null && channel == null) {
+            throw new BufferOverflowException();
+        }
+        if (buffer.position() == 0) {
+            return;
+        }
+        flushed += buffer.position();
+        if (out != null) {
+            out.write(buffer.array(), 0, buffer.position());
+        } else {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Receives the contents of a midi file from MidiEventParser, one callback per event. Payload arrays are scratch space
+ * owned by the parser and are only valid for the duration of the callback.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+public interface MidiEventHandler {
+
+    default void onHeader(int format, int numTracks, int division) {
+    }
+
+    default void onTrackStart(int track) {
+    }
+
+    default void onChannelMessage(int track, long timeIndex, int status, int dataOne, int dataTwo) {
+    }
+
+    default void onMetaMessage(int track, long timeIndex, int type, byte[] data, int offset, int length) {
+    }
+
+    default void onSysexMessage(int track, long timeIndex, int status, byte[] data, int offset, int length) {
+    }
+
+    default void onTrackEnd(int track, long timeIndex) {
+    }
+}
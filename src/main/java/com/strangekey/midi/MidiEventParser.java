@@ -0,0 +1,224 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Push style midi file parser. Walks a stream through a fixed size buffer and reports every event to a
+ * MidiEventHandler without creating event or message objects. Meta and sysex payloads are copied into a reusable
+ * scratch array that only grows when a larger payload comes along.
+ *
+ * A parser is not thread safe, but may be reused for any number of files.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+public class MidiEventParser {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private static final int MIN_BUFFER_SIZE = 16;
+    private static final int HEADER_CHUNK_SIZE = 14;
+    private static final int CHUNK_HEADER_SIZE = 8;
+
+    private final ByteBuffer buffer;
+    private byte[] payload;
+
+    private ReadableByteChannel channel;
+    // bytes left in the track chunk being parsed
+    private long chunkRemaining;
+
+    public MidiEventParser() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public MidiEventParser(int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer too small");
+        }
+        buffer = ByteBuffer.allocate(bufferSize);
+        payload = new byte[256];
+    }
+
+    public void parse(InputStream in, MidiEventHandler handler) throws IOException, MidiException {
+        parse(Channels.newChannel(in), handler);
+    }
+
+    public void parse(ReadableByteChannel channel, MidiEventHandler handler) throws IOException, MidiException {
+        this.channel = channel;
+        buffer.clear().flip();
+        try {
+            int numTracks = parseHeader(handler);
+            int track = 0;
+            while (track < numTracks && fill(CHUNK_HEADER_SIZE)) {
+                int id = buffer.getInt();
+                long length = buffer.getInt() & 0xFFFFFFFFL;
+                if (id == MidiFileReader.MTRK) {
+                    parseTrack(track++, length, handler);
+                } else {
+                    skip(length);
+                }
+            }
+            if (track < numTracks) {
+                throw new MidiException("Expected " + numTracks + " tracks but found " + track);
+            }
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    private int parseHeader(MidiEventHandler handler) throws IOException, MidiException {
+        if (!fill(HEADER_CHUNK_SIZE) || buffer.getInt() != MidiFileReader.MTHD) {
+            throw new MidiException("Not a midi file");
+        }
+        long length = buffer.getInt() & 0xFFFFFFFFL;
+        if (length < HEADER_CHUNK_SIZE - CHUNK_HEADER_SIZE) {
+            throw new MidiException("Invalid header length");
+        }
+        int format = buffer.getShort() & 0xFFFF;
+        int numTracks = buffer.getShort() & 0xFFFF;
+        int division = buffer.getShort() & 0xFFFF;
+        skip(length - (HEADER_CHUNK_SIZE - CHUNK_HEADER_SIZE));
+
+        handler.onHeader(format, numTracks, division);
+        return numTracks;
+    }
+
+    private void parseTrack(int track, long length, MidiEventHandler handler) throws IOException, MidiException {
+        chunkRemaining = length;
+        long timeIndex = 0;
+        int runningStatus = 0;
+
+        handler.onTrackStart(track);
+
+        while (chunkRemaining > 0) {
+            timeIndex += readVariableLengthField();
+
+            int status = readByte();
+            int dataOne = -1;
+            if (status < 0x80) {
+                if (runningStatus == 0) {
+                    throw new MidiException("Data byte without running status");
+                }
+                dataOne = status;
+                status = runningStatus;
+            }
+
+            if (status == 0xFF) {
+                runningStatus = 0;
+                int type = readByte();
+                int payloadLength = readPayload();
+                if (type == MetaMessage.Type.END_OF_TRACK.value) {
+                    skip(chunkRemaining);
+                    break;
+                }
+                handler.onMetaMessage(track, timeIndex, type, payload, 0, payloadLength);
+            } else if (status == 0xF0 || status == 0xF7) {
+                runningStatus = 0;
+                int payloadLength = readPayload();
+                handler.onSysexMessage(track, timeIndex, status, payload, 0, payloadLength);
+            } else if (status >= 0xF0) {
+                throw new MidiException("Unexpected system message " + status);
+            } else {
+                runningStatus = status;
+                if (dataOne < 0) {
+                    dataOne = readDataByte();
+                }
+                int dataTwo = ChannelMessage.getLengthForStatus(status) == 3 ? readDataByte() : 0;
+                handler.onChannelMessage(track, timeIndex, status, dataOne, dataTwo);
+            }
+        }
+
+        handler.onTrackEnd(track, timeIndex);
+    }
+
+    private int readDataByte() throws IOException, MidiException {
+        int data = readByte();
+        if (data > 0x7F) {
+            throw new MidiException("Invalid data byte " + data);
+        }
+        return data;
+    }
+
+    private int readVariableLengthField() throws IOException, MidiException {
+        int maxLength = MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_BYTES;
+        if (chunkRemaining >= maxLength && fill(maxLength)) {
+            int position = buffer.position();
+            int value = MidiFileUtils.readVariableLengthField(buffer);
+            consume(buffer.position() - position);
+            return value;
+        }
+
+        int value = 0;
+        for (int i = 0; i < MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_BYTES; i++) {
+            int b = readByte();
+            value = (value << 7) | (b & 0x7F);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MidiException("Variable length field longer than " + MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_BYTES + " bytes");
+    }
+
+    private int readPayload() throws IOException, MidiException {
+        int length = readVariableLengthField();
+        consume(length);
+        if (length > payload.length) {
+            payload = new byte[Math.max(length, payload.length * 2)];
+        }
+        int offset = 0;
+        while (offset < length) {
+            require(1);
+            int chunk = Math.min(length - offset, buffer.remaining());
+            buffer.get(payload, offset, chunk);
+            offset += chunk;
+        }
+        return length;
+    }
+
+    private int readByte() throws IOException, MidiException {
+        consume(1);
+        require(1);
+        return buffer.get() & 0xFF;
+    }
+
+    private void consume(long length) throws MidiException {
+        if (length > chunkRemaining) {
+            throw new MidiException("Event exceeds track chunk");
+        }
+        chunkRemaining -= length;
+    }
+
+    private void require(int length) throws IOException, MidiException {
+        if (!fill(length)) {
+            throw new MidiException("Unexpected end of file");
+        }
+    }
+
+    private void skip(long length) throws IOException, MidiException {
+        while (length > 0) {
+            require(1);
+            int chunk = (int) Math.min(length, buffer.remaining());
+            buffer.position(buffer.position() + chunk);
+            length -= chunk;
+        }
+    }
+
+    // makes at least length bytes available in the buffer, returns false at the end of the stream
+    private boolean fill(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < length) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= length;
+    }
+}
@@ -17,4 +17,12 @@ public class MidiException extends Exception {
         super(message);
     }
 
+    /**
+     * Creating an exception without a stack trace is much cheaper, for callers that throw it as part of normal control
+     * flow.
+     */
+    public MidiException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
+
 }
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Standard midi file reader (formats 0, 1 and 2, PPQ division only)
+ *
+ * The file is memory mapped and meta and sysex messages keep a view of their payload in the mapped buffer rather than a
+ * copy, which means the mapping stays alive for as long as any of those messages are reachable.
+ *
+ * readLazily only indexes the track chunks and decodes a track the first time it is requested from the sequence, so
+ * memory scales with the tracks actually used. Decoding errors then surface as an IllegalStateException from
+ * Sequence.getTrackAt.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MidiFileReader {
+
+    static final int MTHD = chunkId(MidiFileWriter.M, MidiFileWriter.T, MidiFileWriter.h, MidiFileWriter.d);
+    static final int MTRK = chunkId(MidiFileWriter.M, MidiFileWriter.T, MidiFileWriter.r, MidiFileWriter.k);
+
+    private static final int MIN_HEADER_LENGTH = 6;
+    private static final int CHUNK_HEADER_SIZE = 8;
+
+    public static Sequence read(Path path) throws IOException, MidiException {
+        return read(path, Track.Storage.OBJECTS);
+    }
+
+    public static Sequence read(Path path, Track.Storage storage) throws IOException, MidiException {
+        return read(map(path), storage);
+    }
+
+    public static Sequence read(ByteBuffer buffer) throws MidiException {
+        return read(buffer, Track.Storage.OBJECTS);
+    }
+
+    public static Sequence read(ByteBuffer buffer, Track.Storage storage) throws MidiException {
+        ByteBuffer file = buffer.slice();
+        Header header = readHeader(file);
+        Sequence sequence = new Sequence(header.division);
+
+        for (ByteBuffer chunk : indexTracks(file, header)) {
+            readTrack(chunk, sequence.createTrack(storage));
+        }
+        return sequence;
+    }
+
+    public static Sequence readLazily(Path path) throws IOException, MidiException {
+        return readLazily(path, Track.Storage.OBJECTS);
+    }
+
+    public static Sequence readLazily(Path path, Track.Storage storage) throws IOException, MidiException {
+        return readLazily(map(path), storage);
+    }
+
+    public static Sequence readLazily(ByteBuffer buffer) throws MidiException {
+        return readLazily(buffer, Track.Storage.OBJECTS);
+    }
+
+    public static Sequence readLazily(ByteBuffer buffer, Track.Storage storage) throws MidiException {
+        ByteBuffer file = buffer.slice();
+        Header header = readHeader(file);
+        ByteBuffer[] chunks = indexTracks(file, header);
+        return new Sequence(header.division, chunks.length, new ChunkTrackLoader(chunks, storage));
+    }
+
+    private static ByteBuffer[] indexTracks(ByteBuffer file, Header header) throws MidiException {
+        ByteBuffer[] chunks = new ByteBuffer[header.numTracks];
+        int numTracks = 0;
+        while (file.hasRemaining() && numTracks < header.numTracks) {
+            if (file.remaining() < CHUNK_HEADER_SIZE) {
+                throw new MidiException("Truncated chunk header");
+            }
+            int id = file.getInt();
+            ByteBuffer chunk = readChunk(file);
+            if (id == MTRK) {
+                chunks[numTracks++] = chunk;
+            }
+        }
+
+        if (numTracks < header.numTracks) {
+            throw new MidiException("Expected " + header.numTracks + " tracks but found " + numTracks);
+        }
+        return chunks;
+    }
+
+    static ByteBuffer map(Path path) throws IOException, MidiException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new MidiException("File too large to map");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    static Header readHeader(ByteBuffer file) throws MidiException {
+        if (file.remaining() < CHUNK_HEADER_SIZE + MIN_HEADER_LENGTH || file.getInt() != MTHD) {
+            throw new MidiException("Not a midi file");
+        }
+        ByteBuffer chunk = readChunk(file);
+        if (chunk.remaining() < MIN_HEADER_LENGTH) {
+            throw new MidiException("Invalid header length");
+        }
+
+        Header header = new Header();
+        header.format = chunk.getShort() & 0xFFFF;
+        header.numTracks = chunk.getShort() & 0xFFFF;
+        header.division = chunk.getShort() & 0xFFFF;
+
+        if (header.format > 2) {
+            throw new MidiException("Unsupported midi file format " + header.format);
+        }
+        if ((header.division & 0x8000) != 0) {
+            throw new MidiException("SMPTE time division is not supported");
+        }
+        return header;
+    }
+
+    static ByteBuffer readChunk(ByteBuffer file) throws MidiException {
+        if (file.remaining() < 4) {
+            throw new MidiException("Truncated chunk header");
+        }
+        long length = file.getInt() & 0xFFFFFFFFL;
+        if (length > file.remaining()) {
+            throw new MidiException("Truncated chunk");
+        }
+        return slice(file, (int) length);
+    }
+
+    static void readTrack(ByteBuffer chunk, Track track) throws MidiException {
+        try {
+            readEvents(chunk, track);
+        } catch (BufferUnderflowException e) {
+            throw new MidiException("Unexpected end of track");
+        }
+    }
+
+    private static void readEvents(ByteBuffer chunk, Track track) throws MidiException {
+        long timeIndex = 0;
+        int runningStatus = 0;
+
+        while (chunk.hasRemaining()) {
+            timeIndex += MidiFileUtils.readVariableLengthField(chunk);
+
+            int status = chunk.get(chunk.position()) & 0xFF;
+            if (status < 0x80) {
+                if (runningStatus == 0) {
+                    throw new MidiException("Data byte without running status");
+                }
+                status = runningStatus;
+            } else {
+                chunk.get();
+            }
+
+            if (status == (MetaMessage.META_STATUS_BYTE & 0xFF)) {
+                runningStatus = 0;
+                byte type = chunk.get();
+                ByteBuffer payload = slice(chunk, MidiFileUtils.readVariableLengthField(chunk));
+                if (type == MetaMessage.Type.END_OF_TRACK.value) {
+                    track.updateEndOfTrackTimeIndex(timeIndex);
+                    return;
+                }
+                track.add(new MidiEvent(new MetaMessage(type, payload), timeIndex));
+            } else if (status == (SysexMessage.SYSEX_STATUS_BYTE & 0xFF) || status == (SysexMessage.ESCAPE_STATUS_BYTE & 0xFF)) {
+                runningStatus = 0;
+                ByteBuffer payload = slice(chunk, MidiFileUtils.readVariableLengthField(chunk));
+                track.add(new MidiEvent(new SysexMessage((byte) status, payload), timeIndex));
+            } else if (status >= 0xF0) {
+                throw new MidiException("Unexpected system message " + status);
+            } else {
+                runningStatus = status;
+                int dataOne = readDataByte(chunk);
+                int dataTwo = ChannelMessage.getLengthForStatus(status) == 3 ? readDataByte(chunk) : 0;
+                track.add(new MidiEvent(ChannelMessage.unpack(ChannelMessage.pack(status, dataOne, dataTwo)), timeIndex));
+            }
+        }
+    }
+
+    private static int readDataByte(ByteBuffer chunk) throws MidiException {
+        int data = chunk.get() & 0xFF;
+        if (data > 0x7F) {
+            throw new MidiException("Invalid data byte " + data);
+        }
+        return data;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) throws MidiException {
+        if (length > buffer.remaining()) {
+            throw new MidiException("Length " + length + " exceeds chunk");
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(view.position() + length);
+        buffer.position(buffer.position() + length);
+        return view.slice();
+    }
+
+    private static int chunkId(byte one, byte two, byte three, byte four) {
+        return one << 24 | two << 16 | three << 8 | four;
+    }
+
+    private static class ChunkTrackLoader implements TrackLoader {
+
+        private final ByteBuffer[] chunks;
+        private final Track.Storage storage;
+
+        private ChunkTrackLoader(ByteBuffer[] chunks, Track.Storage storage) {
+            this.chunks = chunks;
+            this.storage = storage;
+        }
+
+        @Override
+        public Track load(int index) throws MidiException {
+            Track track = new Track(storage);
+            readTrack(chunks[index].duplicate(), track);
+            chunks[index] = null;
+            return track;
+        }
+    }
+
+    static class Header {
+        int format;
+        int numTracks;
+        int division;
+    }
+}
@@ -5,33 +5,101 @@
  */
 package com.strangekey.midi;
 
+import java.nio.ByteBuffer;
+
 class MidiFileUtils {
 
     private final static long mask = 0x7F;
+    static final int MAX_VARIABLE_LENGTH_FIELD_BYTES = 4;
+    static final int MAX_VARIABLE_LENGTH_FIELD_VALUE = 0x0FFFFFFF;
 
-    static byte[] getVariableLengthFieldBytes(long value) {
-        int index = 0;
-        byte[] bytes = new byte[getVariableLengthFieldByteLength(value)];
-        int shift = 63;
+    // encoded width indexed by the number of leading zero bits of the value
+    private static final byte[] WIDTH_BY_LEADING_ZEROS = new byte[65];
+    // continuation bits of an encoded field indexed by its width, the encoded bytes are right aligned
+    private static final int[] CONTINUATION_BITS = new int[]{0, 0, 0x8000, 0x808000, 0x80808000};
 
-        while ((shift > 0) && ((value & (mask << shift)) == 0)) {
-            shift -= 7;
+    static {
+        for (int leadingZeros = 0; leadingZeros <= 64; leadingZeros++) {
+            int significantBits = Math.max(1, 64 - leadingZeros);
+            WIDTH_BY_LEADING_ZEROS[leadingZeros] = (byte) ((significantBits + 6) / 7);
         }
+    }
 
-        while (shift > 0) {
-            bytes[index++] = (byte) (((value & (mask << shift)) >> shift) | 0x80);
-            shift -= 7;
+    static byte[] getVariableLengthFieldBytes(long value) {
+        byte[] bytes = new byte[getVariableLengthFieldByteLength(value)];
+        int last = bytes.length - 1;
+        for (int index = 0, shift = 7 * last; index < last; index++, shift -= 7) {
+            bytes[index] = (byte) (((value >>> shift) & mask) | 0x80);
         }
-        bytes[index] = (byte) (value & mask);
+        bytes[last] = (byte) (value & mask);
         return bytes;
     }
 
     static int getVariableLengthFieldByteLength(long value) {
-        int length = 0;
-        do {
-            value >>= 7;
-            length++;
-        } while (value > 0L);
+        if (value < 0 || value > MAX_VARIABLE_LENGTH_FIELD_VALUE) {
+            throw new IllegalArgumentException("Value " + value + " does not fit in a " + MAX_VARIABLE_LENGTH_FIELD_BYTES + " byte variable length field");
+        }
+        return WIDTH_BY_LEADING_ZEROS[Long.numberOfLeadingZeros(value)];
+    }
+
+    static int writeVariableLengthField(long value, byte[] dst, int offset) {
+        int length = getVariableLengthFieldByteLength(value);
+        int encoded = encodeVariableLengthField(value, length);
+        for (int shift = 8 * (length - 1); shift >= 0; shift -= 8) {
+            dst[offset++] = (byte) (encoded >>> shift);
+        }
         return length;
     }
+
+    static void writeVariableLengthField(long value, ByteBuffer dst) {
+        int length = getVariableLengthFieldByteLength(value);
+        int encoded = encodeVariableLengthField(value, length);
+        switch (length) {
+            case 4:
+                dst.putInt(encoded);
+                break;
+            case 3:
+                dst.putShort((short) (encoded >>> 8));
+                dst.put((byte) encoded);
+                break;
+            case 2:
+                dst.putShort((short) encoded);
+                break;
+            default:
+                dst.put((byte) encoded);
+        }
+    }
+
+    // spreads the 7 bit groups of the value one per byte and sets the continuation bits, the length was taken from
+    // getVariableLengthFieldByteLength, which range checks the value
+    private static int encodeVariableLengthField(long value, int length) {
+        int v = (int) value;
+        int encoded = (v & 0x7F) | (v << 1 & 0x7F00) | (v << 2 & 0x7F0000) | (v << 3 & 0x7F000000);
+        return encoded | CONTINUATION_BITS[length];
+    }
+
+    static int readVariableLengthField(ByteBuffer src) throws MidiException {
+        if (src.remaining() >= MAX_VARIABLE_LENGTH_FIELD_BYTES) {
+            int position = src.position();
+            int word = src.getInt(position);
+            int lastBytes = ~word & 0x80808080;
+            if (lastBytes == 0) {
+                throw new MidiException("Variable length field longer than " + MAX_VARIABLE_LENGTH_FIELD_BYTES + " bytes");
+            }
+            int length = (Integer.numberOfLeadingZeros(lastBytes) >>> 3) + 1;
+            src.position(position + length);
+            int w = word >>> (8 * (MAX_VARIABLE_LENGTH_FIELD_BYTES - length));
+            return (w & 0x7F) | (w >>> 1 & 0x3F80) | (w >>> 2 & 0x1FC000) | (w >>> 3 & 0xFE00000);
+        }
+
+        int value = 0;
+        for (int i = 0; i < MAX_VARIABLE_LENGTH_FIELD_BYTES; i++) {
+            int b = src.get();
+            value = (value << 7) | (b & 0x7F);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MidiException("Variable length field longer than " + MAX_VARIABLE_LENGTH_FIELD_BYTES + " bytes");
+    }
 }
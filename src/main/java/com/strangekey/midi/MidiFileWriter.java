@@ -1,7 +1,7 @@
 /**
  * Copyright 2010 Leeor Engel.
  *
- * Midi format 1 (multi-track) file writer
+ * Midi format 1 (multi-track) and format 0 (single track) file writer
  *
  * http://home.roadrunner.com/~jgglatt/tech/midifile.htm for details on the midi file format
  *
@@ -12,7 +12,23 @@ package com.strangekey.midi;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class MidiFileWriter {
 
@@ -24,83 +40,279 @@ public class MidiFileWriter {
     static final byte k = 0x6B;
 
     private static final byte HEADER_LENGTH = 6;
+    private static final int HEADER_CHUNK_SIZE = 8 + HEADER_LENGTH;
+    private static final int TRACK_HEADER_SIZE = 8;
 
+    private static final Option[] NO_OPTIONS = new Option[0];
+
+    private static final Executor CALLER_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // the original signature, kept so code compiled against it still links
     public static final void write(Sequence sequence, OutputStream out) throws IOException {
-        writeHeader(sequence, out);
+        write(sequence, out, NO_OPTIONS);
+    }
+
+    public static final void write(Sequence sequence, OutputStream out, Option... options) throws IOException {
+        MidiEncoder encoder = new MidiEncoder(out).setOptions(options);
+        writeHeader(sequence, encoder);
+
+        int numTracks = sequence.getNumTracks();
+        for (int i = 0; i < numTracks; i++) {
+            writeTrack(sequence.getTrackAt(i), encoder);
+        }
+        encoder.flush();
+    }
+
+    public static final void write(Sequence sequence, Path path, Option... options) throws IOException {
+        write(sequence, path, CALLER_THREAD, options);
+    }
+
+    public static final void write(Sequence sequence, Path path, Executor executor, Option... options) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            write(sequence, channel, executor, options);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Encodes the header and every track chunk into its own direct buffer and hands them all to the channel at once,
+     * using a single gathering write when the channel supports it.
+     */
+    public static final void write(Sequence sequence, WritableByteChannel channel, Option... options) throws IOException {
+        write(sequence, channel, CALLER_THREAD, options);
+    }
 
+    public static final void writeParallel(Sequence sequence, WritableByteChannel channel, Option... options) throws IOException {
+        write(sequence, channel, ForkJoinPool.commonPool(), options);
+    }
+
+    /**
+     * Track chunks do not depend on each other, so each one is encoded as a separate task on the executor. The chunks
+     * are written in track order once all of them are encoded.
+     */
+    public static final void write(Sequence sequence, WritableByteChannel channel, Executor executor, Option... options) throws IOException {
         int numTracks = sequence.getNumTracks();
+        ByteBuffer[] chunks = new ByteBuffer[numTracks + 1];
+
+        chunks[0] = ByteBuffer.allocateDirect(HEADER_CHUNK_SIZE);
+        writeHeader(sequence, new MidiEncoder(chunks[0]));
+
+        encodeTracks(sequence, chunks, executor, options);
+
+        for (ByteBuffer chunk : chunks) {
+            chunk.flip();
+        }
+        writeFully(chunks, channel);
+    }
+
+    private static void encodeTracks(Sequence sequence, ByteBuffer[] chunks, Executor executor, final Option... options) throws IOException {
+        int numTracks = chunks.length - 1;
+        List<Future<ByteBuffer>> tasks = new ArrayList<Future<ByteBuffer>>(numTracks);
+
         for (int i = 0; i < numTracks; i++) {
-            writeTrack(sequence.getTrackAt(i), out);
+            final Track track = sequence.getTrackAt(i);
+            Callable<ByteBuffer> encoding = new Callable<ByteBuffer>() {
+                @Override
+                public ByteBuffer call() throws IOException {
+                    return encodeTrack(track, options);
+                }
+            };
+            tasks.add(submit(encoding, executor));
+        }
+
+        for (int i = 0; i < numTracks; i++) {
+            chunks[i + 1] = getEncodedTrack(tasks.get(i));
         }
     }
 
-    private static void writeHeader(Sequence sequence, OutputStream out) throws IOException {
-        writeHeaderId(out);
-        writeHeaderLength(out);
-        writeMidiFormatOne(out);
-        out.write(intToBytes(sequence.getNumTracks(), 2));
-        out.write(intToBytes(sequence.getResolution(), 2));
+    /**
+     * Fork-join pools get fork-join tasks, forked when called from one of the pool's own workers, so that a worker
+     * waiting for the tracks runs pending encodings itself instead of blocking, e.g. when writing from a parallel stream.
+     */
+    private static Future<ByteBuffer> submit(Callable<ByteBuffer> encoding, Executor executor) {
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinTask<ByteBuffer> task = ForkJoinTask.adapt(encoding);
+            if (ForkJoinTask.getPool() == executor) {
+                task.fork();
+            } else {
+                ((ForkJoinPool) executor).execute(task);
+            }
+            return task;
+        }
+        FutureTask<ByteBuffer> task = new FutureTask<ByteBuffer>(encoding);
+        executor.execute(task);
+        return task;
     }
 
-    private static void writeHeaderId(OutputStream out) throws IOException {
-        out.write(new byte[]{M, T, h, d});
+    private static ByteBuffer getEncodedTrack(Future<ByteBuffer> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // fork-join tasks wrap the checked exceptions of callables in plain runtime exceptions
+            while (task instanceof ForkJoinTask && cause.getClass() == RuntimeException.class && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
-    private static void writeHeaderLength(OutputStream out) throws IOException {
-        out.write(new byte[]{0, 0, 0, HEADER_LENGTH});
+    private static ByteBuffer encodeTrack(Track track, Option... options) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(TRACK_HEADER_SIZE + MidiEncoder.getEncodedLength(track, options));
+        writeTrack(track, new MidiEncoder(buffer).setOptions(options));
+        return buffer;
     }
 
-    private static void writeMidiFormatOne(OutputStream out) throws IOException {
-        out.write(new byte[]{0, 1});
+    private static void writeFully(ByteBuffer[] buffers, WritableByteChannel channel) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+            while (last.hasRemaining()) {
+                gatheringChannel.write(buffers);
+            }
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
     }
 
-    private static void writeTrack(Track track, OutputStream out) throws IOException {
-        writeTrackId(out);
-        writeTrackLength(track, out);
+    /**
+     * Writes all tracks merged into the single track chunk of a format 0 file. Events are streamed from a merge of the
+     * tracks, once to compute the chunk length and once to encode them, so no combined track is built. The end of track
+     * events of the tracks are dropped and a single one is written at the end of the longest track.
+     */
+    public static final void writeFormatZero(Sequence sequence, OutputStream out, Option... options) throws IOException {
+        MidiEncoder encoder = new MidiEncoder(out).setOptions(options);
+        writeFormatZero(sequence, encoder, options);
+        encoder.flush();
+    }
 
-        MidiEvent firstEvent = track.get(0);
-        writeMidiEvent(firstEvent, out, firstEvent.getTimeIndex());
+    public static final void writeFormatZero(Sequence sequence, Path path, Option... options) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            writeFormatZero(sequence, channel, options);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public static final void writeFormatZero(Sequence sequence, WritableByteChannel channel, Option... options) throws IOException {
+        MidiEncoder encoder = new MidiEncoder(channel, MidiEncoder.DEFAULT_BUFFER_SIZE).setOptions(options);
+        writeFormatZero(sequence, encoder, options);
+        encoder.flush();
+    }
+
+    private static void writeFormatZero(Sequence sequence, MidiEncoder encoder, Option... options) throws IOException {
+        writeHeader(0, 1, sequence.getResolution(), encoder);
+        writeTrackId(encoder);
+        encoder.writeInt(MidiEncoder.getMergedEncodedLength(sequence, options));
+        encoder.resetRunningStatus();
 
-        MidiEvent previousEvent = firstEvent;
+        long previousTimeIndex = 0;
 
-        for (int i = 1; i < track.size(); i++) {
-            MidiEvent event = track.get(i);
-            writeMidiEvent(event, out, getDeltaTime(previousEvent, event));
-            previousEvent = event;
+        MergedTrackIterator events = sequence.mergedIterator();
+        while (events.hasNext()) {
+            MidiEvent event = events.next();
+            if (!events.isEndOfTrack()) {
+                writeMidiEvent(event, encoder, event.getTimeIndex() - previousTimeIndex);
+                previousTimeIndex = event.getTimeIndex();
+            }
         }
+
+        encoder.writeVariableLengthField(sequence.getTimeIndexLength() - previousTimeIndex);
+        encoder.writeMessage(Track.endOfTrackMessage());
     }
 
-    private static void writeTrackLength(Track track, OutputStream out) throws IOException {
-        out.write(intToBytes(track.getLength(), 4));
+    private static void writeHeader(Sequence sequence, MidiEncoder encoder) throws IOException {
+        writeHeader(1, sequence.getNumTracks(), sequence.getResolution(), encoder);
     }
 
-    private static void writeMidiEvent(MidiEvent event, OutputStream out, long actualTimeIndex) throws IOException {
-        out.write(MidiFileUtils.getVariableLengthFieldBytes(actualTimeIndex));
-        out.write(event.getMessage().toBytes());
+    static void writeHeader(int format, int numTracks, int resolution, MidiEncoder encoder) throws IOException {
+        writeHeaderId(encoder);
+        writeHeaderLength(encoder);
+        writeMidiFormat(format, encoder);
+        encoder.writeShort(numTracks);
+        encoder.writeShort(resolution);
     }
 
-    private static long getDeltaTime(MidiEvent previousEvent, MidiEvent event) {
-        return event.getTimeIndex() - previousEvent.getTimeIndex();
+    private static void writeHeaderId(MidiEncoder encoder) throws IOException {
+        writeChunkId(encoder, M, T, h, d);
     }
 
-    private static void writeTrackId(OutputStream out) throws IOException {
-        out.write(new byte[]{M, T, r, k});
+    private static void writeHeaderLength(MidiEncoder encoder) throws IOException {
+        encoder.writeInt(HEADER_LENGTH);
     }
 
-    static byte[] intToBytes(int value, int size) {
-        switch (size) {
-            case 1:
-                return new byte[]{(byte) value};
-            case 2:
-                return new byte[]{(byte) (value >>> 8), (byte) value};
-            case 3:
-                return new byte[]{(byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
-            case 4:
-            default:
-                return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    private static void writeMidiFormat(int format, MidiEncoder encoder) throws IOException {
+        encoder.writeShort(format);
+    }
+
+    private static void writeTrack(Track track, MidiEncoder encoder) throws IOException {
+        writeTrackId(encoder);
+        writeTrackLength(track, encoder);
+        encoder.resetRunningStatus();
+
+        TrackCursor cursor = track.cursor();
+        while (cursor.next()) {
+            encoder.writeEvent(cursor);
         }
     }
 
+    private static void writeTrackLength(Track track, MidiEncoder encoder) throws IOException {
+        encoder.writeInt(encoder.getEncodedLength(track));
+    }
+
+    private static void writeMidiEvent(MidiEvent event, MidiEncoder encoder, long deltaTime) throws IOException {
+        encoder.writeVariableLengthField(deltaTime);
+        encoder.writeMessage(event.getMessage());
+    }
+
+    static void writeTrackId(MidiEncoder encoder) throws IOException {
+        writeChunkId(encoder, M, T, r, k);
+    }
+
+    private static void writeChunkId(MidiEncoder encoder, byte one, byte two, byte three, byte four) throws IOException {
+        encoder.writeByte(one);
+        encoder.writeByte(two);
+        encoder.writeByte(three);
+        encoder.writeByte(four);
+    }
+
+    public enum Option {
+        /**
+         * Omits the status byte of a channel message when it repeats the previous one in the track. Meta and sysex
+         * events cancel running status.
+         */
+        RUNNING_STATUS,
+        /**
+         * Writes note offs as note ons with zero velocity, dropping the release velocity, so running status runs are not
+         * broken by alternating note on and note off statuses.
+         */
+        NOTE_OFF_AS_ZERO_VELOCITY_NOTE_ON
+    }
+
     public static void main(String[] args) throws MidiException, IOException {
         Sequence sequence = new Sequence();
         Track trackOne = sequence.createTrack();
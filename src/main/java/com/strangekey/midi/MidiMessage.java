@@ -5,6 +5,8 @@
  */
 package com.strangekey.midi;
 
+import java.nio.ByteBuffer;
+
 public interface MidiMessage {
 
     byte[] getData();
@@ -12,4 +14,21 @@ public interface MidiMessage {
     byte[] toBytes();
 
     int getLength();
+
+    /**
+     * Writes the same bytes as toBytes() into dst starting at offset and returns the number of bytes written. The
+     * built-in messages override this to write without creating the byte array.
+     */
+    default int writeTo(byte[] dst, int offset) {
+        byte[] bytes = toBytes();
+        System.arraycopy(bytes, 0, dst, offset, bytes.length);
+        return bytes.length;
+    }
+
+    /**
+     * Writes the same bytes as toBytes() at the current position of dst.
+     */
+    default void writeTo(ByteBuffer dst) {
+        dst.put(toBytes());
+    }
 }
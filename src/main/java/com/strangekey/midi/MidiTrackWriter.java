@@ -0,0 +1,155 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Streaming midi format 1 file writer. Events are encoded as they arrive and each MTrk chunk length (as well as the
+ * number of tracks in the header) is patched in once it is known, so memory use does not depend on the length of the
+ * song. Requires a seekable channel.
+ *
+ * Usage: beginTrack(), event(...) in non decreasing time index order, endTrack(), repeated per track, then close().
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MidiTrackWriter implements Closeable {
+
+    private static final int NUM_TRACKS_OFFSET = 10;
+    private static final byte[] END_OF_TRACK = new byte[]{MetaMessage.META_STATUS_BYTE, MetaMessage.Type.END_OF_TRACK.value, 0};
+
+    private final SeekableByteChannel channel;
+    private final MidiEncoder encoder;
+    private final ByteBuffer patch;
+    // where the file starts in the channel, which may already be positioned past other data
+    private final long basePosition;
+
+    private int numTracks;
+    private boolean inTrack;
+    private long trackLengthPosition;
+    private long previousTimeIndex;
+    private long endTimeIndex;
+    private boolean closed;
+
+    public MidiTrackWriter(SeekableByteChannel channel, int resolution, MidiFileWriter.Option... options) throws IOException {
+        this.channel = channel;
+        this.basePosition = channel.position();
+        this.encoder = new MidiEncoder(channel, MidiEncoder.DEFAULT_BUFFER_SIZE).setOptions(options);
+        this.patch = ByteBuffer.allocate(4);
+        MidiFileWriter.writeHeader(1, 0, resolution, encoder);
+    }
+
+    public static MidiTrackWriter open(Path path, int resolution, MidiFileWriter.Option... options) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            return new MidiTrackWriter(channel, resolution, options);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void beginTrack() throws IOException {
+        if (inTrack) {
+            throw new IllegalStateException("Track already started");
+        }
+        if (numTracks == 0xFFFF) {
+            throw new IllegalStateException("Too many tracks");
+        }
+        MidiFileWriter.writeTrackId(encoder);
+        trackLengthPosition = encoder.getBytesWritten();
+        encoder.writeInt(0);
+        encoder.resetRunningStatus();
+
+        inTrack = true;
+        previousTimeIndex = 0;
+        endTimeIndex = 0;
+    }
+
+    public void event(long timeIndex, MidiMessage message) throws IOException {
+        if (!inTrack) {
+            throw new IllegalStateException("No track started");
+        }
+        if (message == null || timeIndex < previousTimeIndex) {
+            throw new IllegalArgumentException();
+        }
+
+        if (Track.isEndOfTrack(message)) {
+            endTimeIndex = Math.max(endTimeIndex, timeIndex);
+            return;
+        }
+
+        encoder.writeVariableLengthField(timeIndex - previousTimeIndex);
+        encoder.writeMessage(message);
+        previousTimeIndex = timeIndex;
+        endTimeIndex = Math.max(endTimeIndex, timeIndex);
+    }
+
+    public void event(MidiEvent event) throws IOException {
+        event(event.getTimeIndex(), event.getMessage());
+    }
+
+    public void endTrack() throws IOException {
+        endTrack(endTimeIndex);
+    }
+
+    /**
+     * Ends the current track with its end of track event at endTimeIndex, or after the last event if that is later.
+     */
+    public void endTrack(long endTimeIndex) throws IOException {
+        if (!inTrack) {
+            throw new IllegalStateException("No track started");
+        }
+        encoder.writeVariableLengthField(Math.max(endTimeIndex, previousTimeIndex) - previousTimeIndex);
+        encoder.writeBytes(END_OF_TRACK);
+
+        long trackLength = encoder.getBytesWritten() - trackLengthPosition - 4;
+        if (trackLength > 0xFFFFFFFFL) {
+            throw new IOException("Track too long");
+        }
+        encoder.flush();
+        patch(basePosition + trackLengthPosition, (int) trackLength, 4);
+
+        inTrack = false;
+        numTracks++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (inTrack) {
+                endTrack();
+            }
+            encoder.flush();
+            patch(basePosition + NUM_TRACKS_OFFSET, numTracks, 2);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void patch(long position, int value, int size) throws IOException {
+        long currentPosition = channel.position();
+        patch.clear();
+        if (size == 2) {
+            patch.putShort((short) value);
+        } else {
+            patch.putInt(value);
+        }
+        patch.flip();
+        channel.position(position);
+        while (patch.hasRemaining()) {
+            channel.write(patch);
+        }
+        channel.position(currentPosition);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Event store holding a reference to every event object added to the track.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class ObjectEventStore implements EventStore {
+
+    private List<MidiEvent> events;
+
+    ObjectEventStore() {
+        events = new ArrayList<MidiEvent>();
+    }
+
+    @Override
+    public int size() {
+        return events.size();
+    }
+
+    @Override
+    public MidiEvent get(int index) {
+        return events.get(index);
+    }
+
+    @Override
+    public long getTimeIndex(int index) {
+        return events.get(index).getTimeIndex();
+    }
+
+    @Override
+    public int getMessageLength(int index) {
+        return events.get(index).getMessage().getLength();
+    }
+
+    @Override
+    public void load(int index, TrackCursor cursor) {
+        MidiEvent event = events.get(index);
+        cursor.setMessage(event.getTimeIndex(), event.getMessage());
+    }
+
+    @Override
+    public void add(MidiEvent event) {
+        events.add(event);
+    }
+
+    @Override
+    public void add(int index, MidiEvent event) {
+        events.add(index, event);
+    }
+
+    @Override
+    public void removeRange(int fromIndex, int toIndex) {
+        events.subList(fromIndex, toIndex).clear();
+    }
+
+    @Override
+    public void merge(MidiEvent[] sortedEvents, int fromIndex, int toIndex) {
+        int i = events.size() - 1;
+        int j = toIndex - 1;
+        events.addAll(Collections.<MidiEvent>nCopies(toIndex - fromIndex, null));
+
+        for (int k = events.size() - 1; j >= fromIndex; k--) {
+            if (i >= 0 && events.get(i).getTimeIndex() > sortedEvents[j].getTimeIndex()) {
+                events.set(k, events.get(i--));
+            } else {
+                events.set(k, sortedEvents[j--]);
+            }
+        }
+    }
+}
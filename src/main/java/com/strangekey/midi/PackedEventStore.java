@@ -0,0 +1,213 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Columnar event store. Time indexes are kept in a long[] and channel messages are packed into an int[]. Meta and sysex
+ * message payloads are appended to a byte arena and the message slot holds the complemented arena offset instead. Event
+ * objects are only created when requested through get(int).
+ *
+ * Arena records are laid out as [status][meta type, 0 for sysex][length (4 bytes)][data].
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+class PackedEventStore implements EventStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int ARENA_RECORD_HEADER_LENGTH = 6;
+
+    private long[] timeIndexes;
+    private int[] messages;
+    private int size;
+
+    private byte[] arena;
+    private int arenaSize;
+
+    PackedEventStore() {
+        timeIndexes = new long[INITIAL_CAPACITY];
+        messages = new int[INITIAL_CAPACITY];
+        arena = new byte[0];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public MidiEvent get(int index) {
+        checkIndex(index);
+        return new MidiEvent(getMessage(messages[index]), timeIndexes[index]);
+    }
+
+    @Override
+    public long getTimeIndex(int index) {
+        checkIndex(index);
+        return timeIndexes[index];
+    }
+
+    @Override
+    public int getMessageLength(int index) {
+        checkIndex(index);
+        int message = messages[index];
+        if (isPackedChannelMessage(message)) {
+            return ChannelMessage.getPackedLength(message);
+        }
+        int offset = ~message;
+        int dataLength = getArenaDataLength(offset);
+        int typeLength = arena[offset] == MetaMessage.META_STATUS_BYTE ? 1 : 0;
+        return 1 + typeLength + MidiFileUtils.getVariableLengthFieldByteLength(dataLength) + dataLength;
+    }
+
+    // payloads are read straight from the arena, records are never moved within it
+    @Override
+    public void load(int index, TrackCursor cursor) {
+        checkIndex(index);
+        int message = messages[index];
+        if (isPackedChannelMessage(message)) {
+            cursor.setChannelMessage(timeIndexes[index], message);
+            return;
+        }
+        int offset = ~message;
+        int metaType = arena[offset] == MetaMessage.META_STATUS_BYTE ? arena[offset + 1] & 0xFF : -1;
+        cursor.setPayloadMessage(timeIndexes[index], arena[offset], metaType, arena, offset + ARENA_RECORD_HEADER_LENGTH,
+                getArenaDataLength(offset));
+    }
+
+    @Override
+    public void add(MidiEvent event) {
+        add(size, event);
+    }
+
+    @Override
+    public void add(int index, MidiEvent event) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int message = pack(event.getMessage());
+        ensureCapacity(size + 1);
+        System.arraycopy(timeIndexes, index, timeIndexes, index + 1, size - index);
+        System.arraycopy(messages, index, messages, index + 1, size - index);
+        timeIndexes[index] = event.getTimeIndex();
+        messages[index] = message;
+        size++;
+    }
+
+    // arena records of removed meta and sysex messages are not reclaimed
+    @Override
+    public void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+        }
+        System.arraycopy(timeIndexes, toIndex, timeIndexes, fromIndex, size - toIndex);
+        System.arraycopy(messages, toIndex, messages, fromIndex, size - toIndex);
+        size -= toIndex - fromIndex;
+    }
+
+    @Override
+    public void merge(MidiEvent[] sortedEvents, int fromIndex, int toIndex) {
+        for (int j = fromIndex; j < toIndex; j++) {
+            checkSupported(sortedEvents[j].getMessage());
+        }
+
+        int i = size - 1;
+        int j = toIndex - 1;
+        size += toIndex - fromIndex;
+        ensureCapacity(size);
+
+        for (int k = size - 1; j >= fromIndex; k--) {
+            if (i >= 0 && timeIndexes[i] > sortedEvents[j].getTimeIndex()) {
+                timeIndexes[k] = timeIndexes[i];
+                messages[k] = messages[i--];
+            } else {
+                timeIndexes[k] = sortedEvents[j].getTimeIndex();
+                messages[k] = pack(sortedEvents[j--].getMessage());
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > timeIndexes.length) {
+            int newCapacity = Math.max(capacity, timeIndexes.length + (timeIndexes.length >> 1));
+            timeIndexes = Arrays.copyOf(timeIndexes, newCapacity);
+            messages = Arrays.copyOf(messages, newCapacity);
+        }
+    }
+
+    private static boolean isPackedChannelMessage(int message) {
+        return message >= 0;
+    }
+
+    private int pack(MidiMessage message) {
+        checkSupported(message);
+        if (message instanceof ChannelMessage) {
+            return ((ChannelMessage) message).pack();
+        }
+        if (message instanceof MetaMessage) {
+            MetaMessage metaMessage = (MetaMessage) message;
+            return ~appendToArena(MetaMessage.META_STATUS_BYTE, metaMessage.getType(), metaMessage.getPayload());
+        }
+        SysexMessage sysexMessage = (SysexMessage) message;
+        return ~appendToArena(sysexMessage.getStatus(), (byte) 0, sysexMessage.getPayload());
+    }
+
+    private static void checkSupported(MidiMessage message) {
+        if (!(message instanceof ChannelMessage) && !(message instanceof MetaMessage) && !(message instanceof SysexMessage)) {
+            throw new IllegalArgumentException("Packed storage only supports channel, meta and sysex messages");
+        }
+    }
+
+    private MidiMessage getMessage(int message) {
+        if (isPackedChannelMessage(message)) {
+            return ChannelMessage.unpack(message);
+        }
+        int offset = ~message;
+        int dataLength = getArenaDataLength(offset);
+        int dataOffset = offset + ARENA_RECORD_HEADER_LENGTH;
+        byte[] data = Arrays.copyOfRange(arena, dataOffset, dataOffset + dataLength);
+        if (arena[offset] == MetaMessage.META_STATUS_BYTE) {
+            return new MetaMessage(arena[offset + 1], data);
+        }
+        return new SysexMessage(arena[offset], ByteBuffer.wrap(data));
+    }
+
+    // copies from the payload's view when it has one, without making the message keep a copy of its own
+    private int appendToArena(byte status, byte type, MessagePayload payload) {
+        int offset = arenaSize;
+        int length = payload.length();
+        ensureArenaCapacity(arenaSize + ARENA_RECORD_HEADER_LENGTH + length);
+        arena[offset] = status;
+        arena[offset + 1] = type;
+        arena[offset + 2] = (byte) (length >>> 24);
+        arena[offset + 3] = (byte) (length >>> 16);
+        arena[offset + 4] = (byte) (length >>> 8);
+        arena[offset + 5] = (byte) length;
+        payload.copyTo(arena, offset + ARENA_RECORD_HEADER_LENGTH);
+        arenaSize += ARENA_RECORD_HEADER_LENGTH + length;
+        return offset;
+    }
+
+    private int getArenaDataLength(int offset) {
+        return (arena[offset + 2] & 0xFF) << 24 | (arena[offset + 3] & 0xFF) << 16 | (arena[offset + 4] & 0xFF) << 8
+                | (arena[offset + 5] & 0xFF);
+    }
+
+    private void ensureArenaCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalStateException("Meta message arena is full");
+        }
+        if (capacity > arena.length) {
+            int newCapacity = Math.max(capacity, Math.max(INITIAL_CAPACITY * 4, arena.length + (arena.length >> 1)));
+            arena = Arrays.copyOf(arena, newCapacity);
+        }
+    }
+}
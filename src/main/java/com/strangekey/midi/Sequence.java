@@ -7,28 +7,44 @@
  */
 package com.strangekey.midi;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class Sequence {
 
     private static final int DEFAULT_RESOLUTION = 192;
 
-    private List<Track> tracks;
+    // tracks are created rarely and read for every event written, readers of a copy on write list never lock
+    private final List<Track> tracks = new CopyOnWriteArrayList<Track>();
+    private final Object loadLock = new Object();
     private int resolution;
+    private TrackLoader trackLoader;
 
     public Sequence() {
         this(DEFAULT_RESOLUTION);
     }
 
     public Sequence(int resolution) {
-        tracks = Collections.synchronizedList(new ArrayList<Track>());
         this.resolution = resolution;
     }
 
+    // tracks start out as null placeholders and are decoded by the loader on first access
+    Sequence(int resolution, int numTracks, TrackLoader trackLoader) {
+        this(resolution);
+        tracks.addAll(Collections.<Track>nCopies(numTracks, null));
+        this.trackLoader = trackLoader;
+    }
+
     public Track createTrack() {
-        Track track = new Track();
+        return createTrack(Track.Storage.OBJECTS);
+    }
+
+    public Track createTrack(Track.Storage storage) {
+        Track track = new Track(storage);
         tracks.add(track);
         return track;
     }
@@ -37,7 +53,43 @@ public class Sequence {
         if (index < 0 || index > tracks.size() - 1) {
             throw new IllegalArgumentException();
         }
-        return tracks.get(index);
+        Track track = tracks.get(index);
+        return track != null ? track : loadTrack(index);
+    }
+
+    private Track loadTrack(int index) {
+        synchronized (loadLock) {
+            Track track = tracks.get(index);
+            if (track == null) {
+                try {
+                    track = trackLoader.load(index);
+                } catch (MidiException e) {
+                    throw new IllegalStateException("Could not decode track " + index, e);
+                }
+                tracks.set(index, track);
+            }
+            return track;
+        }
+    }
+
+    /**
+     * @return the events of all tracks in time index order, events on the same time index ordered by track
+     */
+    public MergedTrackIterator mergedIterator() {
+        return new MergedTrackIterator(this);
+    }
+
+    /**
+     * @return the tracks in order, loading lazily read tracks as they are reached. The stream splits by track index, so
+     * a parallel stream works on several tracks at once, e.g. sequence.tracks().parallel().flatMap(Track::stream).
+     */
+    public Stream<Track> tracks() {
+        return IntStream.range(0, getNumTracks()).mapToObj(new IntFunction<Track>() {
+            @Override
+            public Track apply(int index) {
+                return getTrackAt(index);
+            }
+        });
     }
 
     public int getNumTracks() {
@@ -49,7 +101,7 @@ public class Sequence {
         long largestTotalTime = 0L;
 
         for (int i = 0; i < tracks.size(); i++) {
-            long trackTotalTime = tracks.get(i).getTotalTime();
+            long trackTotalTime = getTrackAt(i).getTotalTime();
             if (trackTotalTime > largestTotalTime) {
                 largestTotalTime = trackTotalTime;
             }
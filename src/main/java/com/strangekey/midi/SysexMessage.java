@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Represents a variable length system exclusive message. A sysex message (240) carries everything following the status
+ * byte, including the terminating 247. An escape message (247) carries arbitrary bytes, e.g. a continuation packet of a
+ * divided sysex message.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class SysexMessage implements MidiMessage {
+
+    static final byte SYSEX_STATUS_BYTE = (byte) 0xF0;
+    static final byte ESCAPE_STATUS_BYTE = (byte) 0xF7;
+
+    private byte status;
+    private MessagePayload payload;
+    private int length;
+
+    private SysexMessage(byte status, byte[] data) {
+        this.status = status;
+        this.payload = new MessagePayload(data);
+        this.length = data.length;
+    }
+
+    SysexMessage(byte status, ByteBuffer payload) {
+        this.status = status;
+        this.payload = new MessagePayload(payload);
+        this.length = this.payload.length();
+    }
+
+    public static SysexMessage sysexMessage(byte[] data) {
+        return new SysexMessage(SYSEX_STATUS_BYTE, data.clone());
+    }
+
+    public static SysexMessage escapeMessage(byte[] data) {
+        return new SysexMessage(ESCAPE_STATUS_BYTE, data.clone());
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    @Override
+    public byte[] getData() {
+        return payload.getData();
+    }
+
+    MessagePayload getPayload() {
+        return payload;
+    }
+
+    @Override
+    public int getLength() {
+        return 1 + MidiFileUtils.getVariableLengthFieldByteLength(length) + length;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] fileBytes = new byte[getLength()];
+        writeTo(fileBytes, 0);
+        return fileBytes;
+    }
+
+    @Override
+    public int writeTo(byte[] dst, int offset) {
+        int size = getLength();
+        if (offset < 0 || dst.length - offset < size) {
+            throw new IndexOutOfBoundsException();
+        }
+        dst[offset] = status;
+        int lengthNumBytes = MidiFileUtils.writeVariableLengthField(length, dst, offset + 1);
+        payload.copyTo(dst, offset + 1 + lengthNumBytes);
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        if (dst.remaining() < getLength()) {
+            throw new BufferOverflowException();
+        }
+        dst.put(status);
+        MidiFileUtils.writeVariableLengthField(length, dst);
+        payload.copyTo(dst);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + Arrays.hashCode(getData());
+        result = prime * result + this.status;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SysexMessage other = (SysexMessage) obj;
+        if (this.status != other.status)
+            return false;
+        if (!Arrays.equals(getData(), other.getData()))
+            return false;
+        return true;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Converts between ticks and microseconds using the tempo meta events of a sequence. Tempo events are collected from
+ * every track once and kept as segments in primitive arrays, each holding the start tick, the elapsed microseconds at
+ * that tick and the tempo. Random lookups are a binary search over the segments, a Cursor answers monotonic sweeps in
+ * O(1) amortized time.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class TempoMap {
+
+    static final int DEFAULT_MICROSECONDS_PER_QUARTER_NOTE = 500000;
+
+    private static final Comparator<MidiEvent> TIME_INDEX_ORDER = new Comparator<MidiEvent>() {
+        @Override
+        public int compare(MidiEvent eventOne, MidiEvent eventTwo) {
+            return Long.compare(eventOne.getTimeIndex(), eventTwo.getTimeIndex());
+        }
+    };
+
+    private final int resolution;
+    private final long[] ticks;
+    private final long[] micros;
+    private final int[] microsecondsPerQuarterNote;
+    private final int numSegments;
+
+    public TempoMap(Sequence sequence) {
+        if (sequence == null || sequence.getResolution() <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.resolution = sequence.getResolution();
+
+        List<MidiEvent> tempoEvents = new ArrayList<MidiEvent>();
+        for (int i = 0; i < sequence.getNumTracks(); i++) {
+            Track track = sequence.getTrackAt(i);
+            for (int j = 0; j < track.size() - 1; j++) {
+                MidiEvent event = track.get(j);
+                if (isTempo(event.getMessage())) {
+                    tempoEvents.add(event);
+                }
+            }
+        }
+        // stable, so the last tempo on a tick wins when several tracks set one
+        Collections.sort(tempoEvents, TIME_INDEX_ORDER);
+
+        int capacity = tempoEvents.size() + 1;
+        long[] ticks = new long[capacity];
+        long[] micros = new long[capacity];
+        int[] microsecondsPerQuarterNote = new int[capacity];
+        microsecondsPerQuarterNote[0] = DEFAULT_MICROSECONDS_PER_QUARTER_NOTE;
+        int numSegments = 1;
+
+        for (MidiEvent event : tempoEvents) {
+            long tick = event.getTimeIndex();
+            int tempo = getMicrosecondsPerQuarterNote((MetaMessage) event.getMessage());
+            int last = numSegments - 1;
+            if (tick == ticks[last]) {
+                microsecondsPerQuarterNote[last] = tempo;
+            } else if (tempo != microsecondsPerQuarterNote[last]) {
+                ticks[numSegments] = tick;
+                micros[numSegments] = micros[last] + toMicros(tick - ticks[last], microsecondsPerQuarterNote[last]);
+                microsecondsPerQuarterNote[numSegments] = tempo;
+                numSegments++;
+            }
+        }
+
+        this.ticks = ticks;
+        this.micros = micros;
+        this.microsecondsPerQuarterNote = microsecondsPerQuarterNote;
+        this.numSegments = numSegments;
+    }
+
+    // a tempo of 0 would stop time and make the inverse mapping divide by zero, such events are ignored
+    static boolean isTempo(MidiMessage message) {
+        return message instanceof MetaMessage && ((MetaMessage) message).getType() == MetaMessage.Type.TEMPO.value
+                && ((MetaMessage) message).getData().length == 3
+                && getMicrosecondsPerQuarterNote((MetaMessage) message) > 0;
+    }
+
+    private static int getMicrosecondsPerQuarterNote(MetaMessage message) {
+        byte[] data = message.getData();
+        return (data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | (data[2] & 0xFF);
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    public long tickToMicros(long tick) {
+        return tickToMicros(tick, findSegmentForTick(tick));
+    }
+
+    public long microsToTick(long micros) {
+        return microsToTick(micros, findSegmentForMicros(micros));
+    }
+
+    public int getMicrosecondsPerQuarterNote(long tick) {
+        return microsecondsPerQuarterNote[findSegmentForTick(tick)];
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private long tickToMicros(long tick, int segment) {
+        return micros[segment] + toMicros(tick - ticks[segment], microsecondsPerQuarterNote[segment]);
+    }
+
+    // rounds down to the last tick that starts at or before the given time
+    private long microsToTick(long micros, int segment) {
+        return ticks[segment] + (micros - this.micros[segment]) * resolution / microsecondsPerQuarterNote[segment];
+    }
+
+    private long toMicros(long deltaTicks, int tempo) {
+        return deltaTicks * tempo / resolution;
+    }
+
+    private int findSegmentForTick(long tick) {
+        if (tick < 0) {
+            throw new IllegalArgumentException("Negative tick " + tick);
+        }
+        return findSegment(ticks, tick);
+    }
+
+    private int findSegmentForMicros(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("Negative time " + micros);
+        }
+        return findSegment(this.micros, micros);
+    }
+
+    // index of the last segment starting at or before key, segment 0 always starts at 0
+    private int findSegment(long[] starts, long key) {
+        int index = Arrays.binarySearch(starts, 0, numSegments, key);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // very short segments can round to the same start time
+        while (index + 1 < numSegments && starts[index + 1] == key) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Remembers the segment of the previous lookup, so increasing ticks or times only step forward over the tempo
+     * changes in between. Moving backwards falls back to a binary search. A cursor is not thread safe.
+     */
+    public class Cursor {
+
+        private int tickSegment;
+        private int microsSegment;
+
+        private Cursor() {
+        }
+
+        public long tickToMicros(long tick) {
+            if (tick < ticks[tickSegment]) {
+                tickSegment = findSegmentForTick(tick);
+            } else {
+                while (tickSegment + 1 < numSegments && ticks[tickSegment + 1] <= tick) {
+                    tickSegment++;
+                }
+            }
+            return TempoMap.this.tickToMicros(tick, tickSegment);
+        }
+
+        public long microsToTick(long micros) {
+            if (micros < TempoMap.this.micros[microsSegment]) {
+                microsSegment = findSegmentForMicros(micros);
+            } else {
+                while (microsSegment + 1 < numSegments && TempoMap.this.micros[microsSegment + 1] <= micros) {
+                    microsSegment++;
+                }
+            }
+            return TempoMap.this.microsToTick(micros, microsSegment);
+        }
+    }
+}
@@ -5,24 +5,104 @@
  */
 package com.strangekey.midi;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Mutations are serialized by a write lock, which is a single uncontended compare and set for the common case of one
+ * thread appending events in time order. Readers do not lock: they read optimistically and validate that no write
+ * happened meanwhile, and only retry under the read lock when one did.
+ */
 public class Track {
 
-    private List<MidiEvent> events;
+    private static final Comparator<MidiEvent> TIME_INDEX_ORDER = new Comparator<MidiEvent>() {
+        @Override
+        public int compare(MidiEvent eventOne, MidiEvent eventTwo) {
+            return Long.compare(eventOne.getTimeIndex(), eventTwo.getTimeIndex());
+        }
+    };
+
+    private final StampedLock lock = new StampedLock();
+    private EventStore events;
     private MidiEvent endOfTrackEvent;
+    // encoded length of every event except the end of track event, kept up to date on add
+    private int eventsLength;
+
+    // the reads made through read() and readLong(), created once so reading does not allocate
+    private final Read<Object, MidiEvent> eventRead = new Read<Object, MidiEvent>() {
+        @Override
+        public MidiEvent read(Object argument, int index) {
+            return getUnlocked(index);
+        }
+    };
+    private final Read<TrackCursor, Boolean> loadRead = new Read<TrackCursor, Boolean>() {
+        @Override
+        public Boolean read(TrackCursor cursor, int index) {
+            return loadUnlocked(index, cursor);
+        }
+    };
+    private final LongUnaryOperator timeIndexRead = new LongUnaryOperator() {
+        @Override
+        public long applyAsLong(long index) {
+            return getTimeIndexUnlocked((int) index);
+        }
+    };
+    private final LongUnaryOperator indexOfTickRead = new LongUnaryOperator() {
+        @Override
+        public long applyAsLong(long tick) {
+            return indexOfTickUnlocked(tick);
+        }
+    };
+    private final LongUnaryOperator sizeRead = new LongUnaryOperator() {
+        @Override
+        public long applyAsLong(long unused) {
+            return events.size() + 1;
+        }
+    };
+    private final LongUnaryOperator totalTimeRead = new LongUnaryOperator() {
+        @Override
+        public long applyAsLong(long unused) {
+            return endOfTrackEvent.getTimeIndex();
+        }
+    };
+    private final LongUnaryOperator lengthRead = new LongUnaryOperator() {
+        @Override
+        public long applyAsLong(long unused) {
+            return getLengthUnlocked();
+        }
+    };
 
     Track() {
-        events = new ArrayList<MidiEvent>();
+        this(Storage.OBJECTS);
+    }
+
+    Track(Storage storage) {
+        events = createEventStore(storage);
         MidiMessage endOfTrackMessage = new EndOfTrackMessage();
         endOfTrackEvent = new MidiEvent(endOfTrackMessage, 0);
-        events.add(endOfTrackEvent);
+    }
+
+    private static EventStore createEventStore(Storage storage) {
+        switch (storage) {
+            case PACKED:
+                return new PackedEventStore();
+            case CHUNKED:
+                return new ChunkedEventStore();
+            case OBJECTS:
+            default:
+                return new ObjectEventStore();
+        }
     }
 
     public int getNumEvents() {
-        return events.size();
+        return size();
     }
 
     // TODO add support for padded end of track (i.e. silence at the end of the track)
@@ -31,7 +111,8 @@ public class Track {
             throw new IllegalArgumentException();
         }
 
-        synchronized (events) {
+        long stamp = lock.writeLock();
+        try {
             if (event.getMessage() instanceof EndOfTrackMessage) {
                 updateEndOfTrackMessage(event);
                 return true;
@@ -39,65 +120,467 @@ public class Track {
 
             int numEvents = events.size();
 
+            // after any events on the same time index
             int i = numEvents;
-            for (; i > 0; i--) {
-                if (event.getTimeIndex() >= events.get(i - 1).getTimeIndex()) {
-                    break;
-                }
+            if (numEvents > 0 && event.getTimeIndex() < events.getTimeIndex(numEvents - 1)) {
+                i = lowerBound(event.getTimeIndex() + 1);
             }
 
             if (i == numEvents) {
-                swapNewEventWithEndOfTrackEvent(event, numEvents);
+                updateLengthForAppend(event);
+                appendBeforeEndOfTrackEvent(event);
             } else {
+                updateLengthForInsert(i, event);
                 events.add(i, event);
             }
 
             return true;
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
-    private int getDeltaTimeIndexLengthForEvent(int eventIndex) {
-        long deltaTime = eventIndex > 0 ? events.get(eventIndex).getTimeIndex() - events.get(eventIndex - 1).getTimeIndex() : events.get(eventIndex)
-                .getTimeIndex();
+    public boolean addAll(Collection<MidiEvent> events) {
+        if (events == null) {
+            throw new IllegalArgumentException();
+        }
+        MidiEvent[] batch = events.toArray(new MidiEvent[events.size()]);
+        return addAll(batch, 0, batch.length);
+    }
+
+    /**
+     * Adds events in any order. The batch is sorted once (stable by time index) and merged with the existing events in a
+     * single pass, instead of searching for the insertion point of every event. A batch that would leave a gap too
+     * long for a delta time is rejected as a whole.
+     */
+    public boolean addAll(MidiEvent[] events, int fromIndex, int toIndex) {
+        if (events == null || fromIndex < 0 || toIndex > events.length || fromIndex > toIndex) {
+            throw new IllegalArgumentException();
+        }
+
+        MidiEvent[] batch = new MidiEvent[toIndex - fromIndex];
+        int batchSize = 0;
+        long endOfTrackTimeIndex = -1;
+
+        for (int i = fromIndex; i < toIndex; i++) {
+            MidiEvent event = events[i];
+            if (event == null || event.getTimeIndex() < 0) {
+                throw new IllegalArgumentException();
+            }
+            if (event.getMessage() instanceof EndOfTrackMessage) {
+                endOfTrackTimeIndex = Math.max(endOfTrackTimeIndex, event.getTimeIndex());
+            } else {
+                batch[batchSize++] = event;
+            }
+        }
+
+        Arrays.sort(batch, 0, batchSize, TIME_INDEX_ORDER);
+
+        long stamp = lock.writeLock();
+        try {
+            // checked before the store is changed, so a rejected batch leaves the track as it was
+            checkMergedDeltaTimes(batch, batchSize);
+            long lastTimeIndex = Math.max(getLastTimeIndex(), batchSize > 0 ? batch[batchSize - 1].getTimeIndex() : 0);
+            if (endOfTrackTimeIndex > endOfTrackEvent.getTimeIndex()) {
+                checkDeltaTime(endOfTrackTimeIndex - lastTimeIndex);
+            }
+
+            if (batchSize > 0) {
+                if (batchSize < this.events.size() / 16) {
+                    eventsLength += getMergedLength(batch, batchSize);
+                    this.events.merge(batch, 0, batchSize);
+                } else {
+                    this.events.merge(batch, 0, batchSize);
+                    eventsLength = calculateEventsLength();
+                }
+                endOfTrackTimeIndex = Math.max(endOfTrackTimeIndex, batch[batchSize - 1].getTimeIndex());
+            }
+            if (endOfTrackTimeIndex > endOfTrackEvent.getTimeIndex()) {
+                endOfTrackEvent.setTimeIndex(endOfTrackTimeIndex);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        return toIndex > fromIndex;
+    }
+
+    private void updateLengthForAppend(MidiEvent event) {
+        eventsLength += event.getMessage().getLength() + getDeltaTimeLength(event.getTimeIndex() - getLastTimeIndex());
+    }
+
+    private void updateLengthForInsert(int index, MidiEvent event) {
+        long previousTimeIndex = index > 0 ? events.getTimeIndex(index - 1) : 0;
+        long nextTimeIndex = events.getTimeIndex(index);
+        long timeIndex = event.getTimeIndex();
+        eventsLength += event.getMessage().getLength() + getDeltaTimeLength(timeIndex - previousTimeIndex)
+                + getDeltaTimeLength(nextTimeIndex - timeIndex) - getDeltaTimeLength(nextTimeIndex - previousTimeIndex);
+    }
+
+    // length the sorted batch adds to the stored events, from the events around each point the batch is merged at
+    private int getMergedLength(MidiEvent[] batch, int batchSize) {
+        int length = 0;
+        int numEvents = events.size();
+        int j = 0;
+        while (j < batchSize) {
+            int index = lowerBound(batch[j].getTimeIndex() + 1);
+            long previousTimeIndex = index > 0 ? events.getTimeIndex(index - 1) : 0;
+            long nextTimeIndex = index < numEvents ? events.getTimeIndex(index) : Long.MAX_VALUE;
+
+            long timeIndex = previousTimeIndex;
+            do {
+                MidiEvent event = batch[j++];
+                length += event.getMessage().getLength() + getDeltaTimeLength(event.getTimeIndex() - timeIndex);
+                timeIndex = event.getTimeIndex();
+            } while (j < batchSize && batch[j].getTimeIndex() < nextTimeIndex);
+
+            if (index < numEvents) {
+                length += getDeltaTimeLength(nextTimeIndex - timeIndex) - getDeltaTimeLength(nextTimeIndex - previousTimeIndex);
+            }
+        }
+        return length;
+    }
+
+    // the batch only splits the gaps between stored events, so a gap too long for a delta time can only end at a batch event
+    private void checkMergedDeltaTimes(MidiEvent[] batch, int batchSize) {
+        long previousTimeIndex = 0;
+        for (int j = 0; j < batchSize; j++) {
+            long timeIndex = batch[j].getTimeIndex();
+            if (timeIndex - previousTimeIndex > MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_VALUE) {
+                int index = lowerBound(timeIndex + 1);
+                if (index > 0) {
+                    previousTimeIndex = Math.max(previousTimeIndex, events.getTimeIndex(index - 1));
+                }
+                checkDeltaTime(timeIndex - previousTimeIndex);
+            }
+            previousTimeIndex = timeIndex;
+        }
+    }
+
+    private static void checkDeltaTime(long deltaTime) {
+        if (deltaTime > MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_VALUE) {
+            throw new IllegalArgumentException("Delta time " + deltaTime + " is longer than " + MidiFileUtils.MAX_VARIABLE_LENGTH_FIELD_VALUE + " ticks");
+        }
+    }
+
+    private long getLastTimeIndex() {
+        int numEvents = events.size();
+        return numEvents > 0 ? events.getTimeIndex(numEvents - 1) : 0;
+    }
+
+    private int calculateEventsLength() {
+        int length = 0;
+        int numEvents = events.size();
+        for (int i = 0; i < numEvents; i++) {
+            length += events.getMessageLength(i) + getDeltaTimeIndexLengthForEvent(i);
+        }
+        return length;
+    }
+
+    private static int getDeltaTimeLength(long deltaTime) {
         return MidiFileUtils.getVariableLengthFieldByteLength(deltaTime);
     }
 
-    private int swapNewEventWithEndOfTrackEvent(MidiEvent event, int numEvents) {
-        int lastEventIndex = numEvents - 1;
-        events.set(lastEventIndex, event);
+    private int getDeltaTimeIndexLengthForEvent(int eventIndex) {
+        long deltaTime = eventIndex > 0 ? events.getTimeIndex(eventIndex) - events.getTimeIndex(eventIndex - 1) : events.getTimeIndex(eventIndex);
+        return getDeltaTimeLength(deltaTime);
+    }
+
+    private void appendBeforeEndOfTrackEvent(MidiEvent event) {
+        events.add(event);
 
         if (endOfTrackEvent.getTimeIndex() < event.getTimeIndex()) {
             endOfTrackEvent.setTimeIndex(event.getTimeIndex());
         }
-        events.add(endOfTrackEvent);
-        return lastEventIndex;
+    }
+
+    static MidiMessage endOfTrackMessage() {
+        return new EndOfTrackMessage();
+    }
+
+    static boolean isEndOfTrack(MidiMessage message) {
+        return message instanceof EndOfTrackMessage;
     }
 
     private void updateEndOfTrackMessage(MidiEvent event) {
-        if (event.getTimeIndex() > endOfTrackEvent.getTimeIndex()) {
-            endOfTrackEvent.setTimeIndex(event.getTimeIndex());
+        raiseEndOfTrackTimeIndex(event.getTimeIndex());
+    }
+
+    void updateEndOfTrackTimeIndex(long timeIndex) {
+        long stamp = lock.writeLock();
+        try {
+            raiseEndOfTrackTimeIndex(timeIndex);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void raiseEndOfTrackTimeIndex(long timeIndex) {
+        if (timeIndex > endOfTrackEvent.getTimeIndex()) {
+            checkDeltaTime(timeIndex - getLastTimeIndex());
+            endOfTrackEvent.setTimeIndex(timeIndex);
         }
     }
 
     public MidiEvent get(int index) {
-        return events.get(index);
+        return read(eventRead, null, index);
+    }
+
+    private MidiEvent getUnlocked(int index) {
+        checkIndex(index);
+        return index == events.size() ? endOfTrackEvent : events.get(index);
+    }
+
+    /**
+     * @return a spliterator over all events including the end of track event, splitting by index range
+     */
+    public Spliterator<MidiEvent> spliterator() {
+        return new TrackSpliterator(this, 0, size());
+    }
+
+    public Stream<MidiEvent> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<MidiEvent> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * @return a new cursor positioned before the first event of this track
+     */
+    public TrackCursor cursor() {
+        return new TrackCursor(this);
+    }
+
+    // returns false instead of loading when index is past the end of track event
+    boolean load(int index, TrackCursor cursor) {
+        return read(loadRead, cursor, index);
+    }
+
+    private boolean loadUnlocked(int index, TrackCursor cursor) {
+        int numEvents = events.size();
+        if (index < numEvents) {
+            events.load(index, cursor);
+            return true;
+        }
+        if (index == numEvents) {
+            cursor.setMessage(endOfTrackEvent.getTimeIndex(), endOfTrackEvent.getMessage());
+            return true;
+        }
+        return false;
+    }
+
+    long getTimeIndex(int index) {
+        return readLong(timeIndexRead, index);
+    }
+
+    private long getTimeIndexUnlocked(int index) {
+        checkIndex(index);
+        return index == events.size() ? endOfTrackEvent.getTimeIndex() : events.getTimeIndex(index);
+    }
+
+    /**
+     * @return the index of the first event at or after tick, or size() if the track ends before tick
+     */
+    public int indexOfTick(long tick) {
+        return (int) readLong(indexOfTickRead, tick);
+    }
+
+    private int indexOfTickUnlocked(long tick) {
+        int index = lowerBound(tick);
+        if (index == events.size() && tick > endOfTrackEvent.getTimeIndex()) {
+            return index + 1;
+        }
+        return index;
+    }
+
+    // index of the first stored event at or after tick
+    private int lowerBound(long tick) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (events.getTimeIndex(middle) < tick) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Removes the first event equal to the given one. The end of track event cannot be removed and the end of track
+     * time index is left unchanged.
+     *
+     * @return whether an event was removed
+     * @throws IllegalArgumentException if removing the event would leave a gap too long for a delta time
+     */
+    public boolean remove(MidiEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException();
+        }
+        if (isEndOfTrack(event.getMessage())) {
+            return false;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            long timeIndex = event.getTimeIndex();
+            for (int i = lowerBound(timeIndex); i < events.size() && events.getTimeIndex(i) == timeIndex; i++) {
+                if (event.equals(events.get(i))) {
+                    removeEvents(i, i + 1);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the events from fromTick (inclusive) to toTick (exclusive). The end of track time index is left unchanged.
+     *
+     * @return the number of events removed
+     * @throws IllegalArgumentException if removing the events would leave a gap too long for a delta time
+     */
+    public int removeRange(long fromTick, long toTick) {
+        if (fromTick < 0 || fromTick > toTick) {
+            throw new IllegalArgumentException();
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int fromIndex = lowerBound(fromTick);
+            int toIndex = lowerBound(toTick);
+            removeEvents(fromIndex, toIndex);
+            return toIndex - fromIndex;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void removeEvents(int fromIndex, int toIndex) {
+        if (fromIndex == toIndex) {
+            return;
+        }
+        int removedLength = 0;
+        for (int i = fromIndex; i < toIndex; i++) {
+            removedLength += events.getMessageLength(i) + getDeltaTimeIndexLengthForEvent(i);
+        }
+        // the gap left behind is checked before the store is changed
+        long previousTimeIndex = fromIndex > 0 ? events.getTimeIndex(fromIndex - 1) : 0;
+        if (toIndex < events.size()) {
+            removedLength += getDeltaTimeIndexLengthForEvent(toIndex) - getDeltaTimeLength(events.getTimeIndex(toIndex) - previousTimeIndex);
+        } else {
+            checkDeltaTime(endOfTrackEvent.getTimeIndex() - previousTimeIndex);
+        }
+        events.removeRange(fromIndex, toIndex);
+        eventsLength -= removedLength;
+    }
+
+    /**
+     * @return a read only view of the events from fromTick (inclusive) to toTick (exclusive), including the end of
+     * track event if it falls in the range
+     */
+    public TrackView subView(long fromTick, long toTick) {
+        if (fromTick < 0 || fromTick > toTick) {
+            throw new IllegalArgumentException();
+        }
+        long stamp = lock.readLock();
+        try {
+            return new TrackView(this, indexOfTickUnlocked(fromTick), indexOfTickUnlocked(toTick));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index > events.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (events.size() + 1));
+        }
     }
 
     public int size() {
-        return events.size();
+        return (int) readLong(sizeRead, 0);
     }
 
     public long getTotalTime() {
-        return events.get(events.size() - 1).getTimeIndex();
+        return readLong(totalTimeRead, 0);
     }
 
     public int getLength() {
-        int length = 0;
-        for (int i = 0; i < events.size(); i++) {
-            length += events.get(i).getMessage().getLength() + getDeltaTimeIndexLengthForEvent(i);
+        return (int) readLong(lengthRead, 0);
+    }
+
+    /**
+     * Runs the read without locking and returns its result if no write happened meanwhile, otherwise runs it again
+     * under the read lock. The store may be caught halfway through a write, so an exception thrown by the optimistic
+     * attempt only counts if no write happened either. The read must not take the lock itself.
+     */
+    private <A, T> T read(Read<A, T> read, A argument, int index) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            T result = read.read(argument, index);
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        } catch (RuntimeException e) {
+            if (lock.validate(stamp)) {
+                throw e;
+            }
         }
 
-        return length;
+        stamp = lock.readLock();
+        try {
+            return read.read(argument, index);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // primitive version of read(Read, Object, int), so time indexes and sizes are not boxed
+    private long readLong(LongUnaryOperator read, long argument) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            long result = read.applyAsLong(argument);
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        } catch (RuntimeException e) {
+            if (lock.validate(stamp)) {
+                throw e;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return read.applyAsLong(argument);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int getLengthUnlocked() {
+        return eventsLength + endOfTrackEvent.getMessage().getLength() + getDeltaTimeLength(endOfTrackEvent.getTimeIndex() - getLastTimeIndex());
+    }
+
+    /**
+     * OBJECTS keeps every added event object. PACKED keeps time indexes and messages in primitive arrays and creates
+     * event views on demand, trading a small cost on get(int) for a much smaller heap footprint on large tracks.
+     * CHUNKED keeps event objects in a tree of fixed size chunks, trading a slower get(int) for O(log n) inserts and
+     * removes anywhere in the track.
+     */
+    public enum Storage {
+        OBJECTS,
+        PACKED,
+        CHUNKED
+    }
+
+    private interface Read<A, T> {
+        T read(A argument, int index);
     }
 
     private static class EndOfTrackMessage implements MidiMessage {
@@ -125,6 +608,17 @@ public class Track {
             return 3;
         }
 
+        @Override
+        public int writeTo(byte[] dst, int offset) {
+            System.arraycopy(data, 0, dst, offset, data.length);
+            return data.length;
+        }
+
+        @Override
+        public void writeTo(ByteBuffer dst) {
+            dst.put(data);
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Reusable, mutable cursor over the events of a track, including the end of track event. Each call to next() loads the
+ * time index and the status and data bytes of the next event into primitive fields, and meta and sysex payloads are
+ * read in place, so scanning a track does not create event or message objects. A cursor is meant to be used by one
+ * thread at a time and can be pointed at another track with reset(Track).
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.nio.ByteBuffer;
+
+public class TrackCursor {
+
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    private static final int META_STATUS = MetaMessage.META_STATUS_BYTE & 0xFF;
+
+    private Track track;
+    private int index;
+    private long tick;
+    private long previousTick;
+
+    private int status;
+    private int dataOne;
+    private int dataTwo;
+    private int metaType;
+    private byte[] payload;
+    private int payloadOffset;
+    private int payloadLength;
+    // payload of a meta or sysex message object, read in place so a payload mapped from a file is not copied
+    private MessagePayload messagePayload;
+    // the message object of meta and sysex events and of types the cursor cannot take apart, e.g. user
+    // implementations of MidiMessage, written as a whole by the encoder
+    private MidiMessage message;
+    private boolean otherMessage;
+
+    public TrackCursor(Track track) {
+        reset(track);
+    }
+
+    public void reset(Track track) {
+        if (track == null) {
+            throw new IllegalArgumentException();
+        }
+        this.track = track;
+        reset();
+    }
+
+    /**
+     * Moves the cursor back before the first event.
+     */
+    public void reset() {
+        index = -1;
+        tick = 0;
+        previousTick = 0;
+        clearMessage();
+    }
+
+    /**
+     * @return false once the end of track event has been visited
+     */
+    public boolean next() {
+        long tick = this.tick;
+        if (!track.load(index + 1, this)) {
+            return false;
+        }
+        previousTick = tick;
+        index++;
+        return true;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    public long tick() {
+        return tick;
+    }
+
+    public long deltaTick() {
+        return tick - previousTick;
+    }
+
+    /**
+     * @return the status byte, 0x80 to 0xEF for channel messages, 0xFF for meta messages and 0xF0 or 0xF7 for sysex
+     */
+    public int status() {
+        return status;
+    }
+
+    public int data1() {
+        return dataOne;
+    }
+
+    public int data2() {
+        return dataTwo;
+    }
+
+    public boolean isChannelMessage() {
+        return status >= 0x80 && status < 0xF0;
+    }
+
+    public boolean isMetaMessage() {
+        return status == META_STATUS;
+    }
+
+    public boolean isSysexMessage() {
+        return status == (SysexMessage.SYSEX_STATUS_BYTE & 0xFF) || status == (SysexMessage.ESCAPE_STATUS_BYTE & 0xFF);
+    }
+
+    public boolean isEndOfTrack() {
+        return status == META_STATUS && metaType == (MetaMessage.Type.END_OF_TRACK.value & 0xFF);
+    }
+
+    /**
+     * @return the meta event type, or -1 if the current event is not a meta event
+     */
+    public int metaType() {
+        return metaType;
+    }
+
+    /**
+     * @return the length of the meta or sysex payload, 0 for channel messages
+     */
+    public int payloadLength() {
+        return payloadLength;
+    }
+
+    public int payloadByte(int index) {
+        if (index < 0 || index >= payloadLength) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + payloadLength);
+        }
+        if (messagePayload != null) {
+            return messagePayload.get(index) & 0xFF;
+        }
+        return payload[payloadOffset + index] & 0xFF;
+    }
+
+    public int copyPayload(byte[] dst, int offset) {
+        if (messagePayload != null) {
+            if (offset < 0 || dst.length - offset < payloadLength) {
+                throw new IndexOutOfBoundsException();
+            }
+            messagePayload.copyTo(dst, offset);
+        } else {
+            System.arraycopy(payload, payloadOffset, dst, offset, payloadLength);
+        }
+        return payloadLength;
+    }
+
+    public void copyPayload(ByteBuffer dst) {
+        if (messagePayload != null) {
+            messagePayload.copyTo(dst);
+        } else {
+            dst.put(payload, payloadOffset, payloadLength);
+        }
+    }
+
+    byte[] getPayloadArray() {
+        return payload;
+    }
+
+    int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    /**
+     * @return the message object of the current event if the encoder should write it whole, otherwise null
+     */
+    MidiMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the message of the current event if its type cannot be taken apart by the cursor, otherwise null
+     */
+    MidiMessage getOtherMessage() {
+        return otherMessage ? message : null;
+    }
+
+    void setChannelMessage(long tick, int packed) {
+        this.tick = tick;
+        clearMessage();
+        status = packed & 0xFF;
+        dataOne = packed >>> 8 & 0xFF;
+        dataTwo = packed >>> 16 & 0xFF;
+    }
+
+    void setPayloadMessage(long tick, int status, int metaType, byte[] payload, int offset, int length) {
+        this.tick = tick;
+        clearMessage();
+        this.status = status & 0xFF;
+        this.metaType = metaType;
+        this.payload = payload;
+        this.payloadOffset = offset;
+        this.payloadLength = length;
+    }
+
+    void setMessage(long tick, MidiMessage message) {
+        if (message instanceof ChannelMessage) {
+            setChannelMessage(tick, ((ChannelMessage) message).pack());
+        } else if (message instanceof MetaMessage) {
+            MetaMessage metaMessage = (MetaMessage) message;
+            setPayloadMessage(tick, META_STATUS, metaMessage.getType() & 0xFF, metaMessage, metaMessage.getPayload());
+        } else if (message instanceof SysexMessage) {
+            SysexMessage sysexMessage = (SysexMessage) message;
+            setPayloadMessage(tick, sysexMessage.getStatus(), -1, sysexMessage, sysexMessage.getPayload());
+        } else if (Track.isEndOfTrack(message)) {
+            setPayloadMessage(tick, META_STATUS, MetaMessage.Type.END_OF_TRACK.value, NO_PAYLOAD, 0, 0);
+        } else {
+            byte[] bytes = message.toBytes();
+            this.tick = tick;
+            clearMessage();
+            status = bytes.length > 0 ? bytes[0] & 0xFF : 0;
+            dataOne = bytes.length > 1 ? bytes[1] & 0xFF : 0;
+            dataTwo = bytes.length > 2 ? bytes[2] & 0xFF : 0;
+            this.message = message;
+            otherMessage = true;
+        }
+    }
+
+    private void setPayloadMessage(long tick, int status, int metaType, MidiMessage message, MessagePayload payload) {
+        setPayloadMessage(tick, status, metaType, NO_PAYLOAD, 0, payload.length());
+        this.message = message;
+        messagePayload = payload;
+    }
+
+    private void clearMessage() {
+        status = 0;
+        dataOne = 0;
+        dataTwo = 0;
+        metaType = -1;
+        payload = NO_PAYLOAD;
+        payloadOffset = 0;
+        payloadLength = 0;
+        messagePayload = null;
+        message = null;
+        otherMessage = false;
+    }
+}
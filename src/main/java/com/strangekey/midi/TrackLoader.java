@@ -0,0 +1,13 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Decodes a track of a sequence on first access.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+interface TrackLoader {
+
+    Track load(int index) throws MidiException;
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Spliterator over a range of track indexes. Splitting halves the range without touching the events, so parallel
+ * streams over a track divide the work by index and read events through Track.get(int). The range is fixed when the
+ * spliterator is created, so the track should not be modified during traversal.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+class TrackSpliterator implements Spliterator<MidiEvent> {
+
+    private static final int CHARACTERISTICS = ORDERED | SIZED | SUBSIZED | NONNULL;
+
+    private final Track track;
+    private int index;
+    private final int fence;
+
+    TrackSpliterator(Track track, int origin, int fence) {
+        this.track = track;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super MidiEvent> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        if (index >= fence) {
+            return false;
+        }
+        action.accept(track.get(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super MidiEvent> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        for (; index < fence; index++) {
+            action.accept(track.get(index));
+        }
+    }
+
+    @Override
+    public Spliterator<MidiEvent> trySplit() {
+        int origin = index;
+        int middle = (origin + fence) >>> 1;
+        if (origin >= middle) {
+            return null;
+        }
+        index = middle;
+        return new TrackSpliterator(track, origin, middle);
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * Read only window over a range of track indexes, created by Track.subView(long, long). Events are not copied, get(int)
+ * reads through to the track. Like List.subList, the range is fixed when the view is created, so a view should not be
+ * used after events are added to or removed from the track before or inside it.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+public class TrackView {
+
+    private final Track track;
+    private final int fromIndex;
+    private final int toIndex;
+
+    TrackView(Track track, int fromIndex, int toIndex) {
+        this.track = track;
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+    }
+
+    public int size() {
+        return toIndex - fromIndex;
+    }
+
+    public MidiEvent get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return track.get(fromIndex + index);
+    }
+
+    /**
+     * @return the index in the track of the first event of this view
+     */
+    public int getFromIndex() {
+        return fromIndex;
+    }
+}
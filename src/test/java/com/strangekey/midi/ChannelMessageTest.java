@@ -7,9 +7,15 @@ package com.strangekey.midi;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ChannelMessageTest {
@@ -197,4 +203,79 @@ public class ChannelMessageTest {
     public void testProgramChangeInvalidInstrumentNumberTooLow() throws MidiException {
         ChannelMessage.programChange(0, -1);
     }
+
+    @Test
+    public void testWriteTo() throws MidiException {
+        ChannelMessage noteOn = ChannelMessage.noteOn(2, 60, 50);
+
+        byte[] dst = new byte[5];
+        assertEquals(3, noteOn.writeTo(dst, 2));
+        assertTrue(Arrays.equals(new byte[]{0, 0, noteOn.getData()[0], 60, 50}, dst));
+
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.put((byte) 1);
+        noteOn.writeTo(buffer);
+        assertEquals(4, buffer.position());
+        assertTrue(Arrays.equals(new byte[]{1, noteOn.getData()[0], 60, 50}, buffer.array()));
+    }
+
+    @Test
+    public void testInterning() throws MidiException {
+        ChannelMessage.setInterning(true);
+        try {
+            assertSame(ChannelMessage.noteOn(3, 60, 50), ChannelMessage.noteOn(3, 60, 50));
+            assertSame(ChannelMessage.noteOff(15, 127, 127), ChannelMessage.noteOff(15, 127, 127));
+            assertSame(ChannelMessage.programChange(0, 0), ChannelMessage.programChange(0, 0));
+            assertSame(ChannelMessage.noteOn(3, 60, 50), ChannelMessage.unpack(ChannelMessage.noteOn(3, 60, 50).pack()));
+            assertNotSame(ChannelMessage.noteOn(3, 60, 50), ChannelMessage.noteOff(3, 60, 50));
+            assertNotSame(ChannelMessage.noteOn(3, 60, 50), ChannelMessage.noteOn(4, 60, 50));
+            assertTrue(Arrays.equals(new byte[]{(byte) 0x93, 60, 50}, ChannelMessage.noteOn(3, 60, 50).getData()));
+
+            // the returned arrays are copies, writing to them does not change the shared instance
+            ChannelMessage.noteOn(3, 60, 50).getData()[1] = 61;
+            ChannelMessage.noteOn(3, 60, 50).toBytes()[2] = 51;
+            assertTrue(Arrays.equals(new byte[]{(byte) 0x93, 60, 50}, ChannelMessage.noteOn(3, 60, 50).toBytes()));
+        } finally {
+            ChannelMessage.setInterning(false);
+        }
+        assertNotSame(ChannelMessage.noteOn(3, 60, 50), ChannelMessage.noteOn(3, 60, 50));
+    }
+
+    @Test
+    public void testEqualsAndHashCode() throws MidiException {
+        ChannelMessage noteOn = ChannelMessage.noteOn(1, 60, 50);
+        assertEquals(noteOn, ChannelMessage.noteOn(1, 60, 50));
+        assertEquals(noteOn.hashCode(), ChannelMessage.noteOn(1, 60, 50).hashCode());
+        assertFalse(noteOn.equals(ChannelMessage.noteOn(1, 60, 51)));
+        assertFalse(ChannelMessage.programChange(1, 60).equals(ChannelMessage.unpack(ChannelMessage.pack(0xD1, 60, 0))));
+    }
+
+    @Test
+    public void testTryFactories() throws MidiException {
+        assertEquals(ChannelMessage.noteOn(1, 60, 50), ChannelMessage.tryNoteOn(1, 60, 50));
+        assertEquals(ChannelMessage.noteOff(1, 60, 50), ChannelMessage.tryNoteOff(1, 60, 50));
+        assertEquals(ChannelMessage.polyphonicKeyPressure(1, 60, 50), ChannelMessage.tryPolyphonicKeyPressure(1, 60, 50));
+        assertEquals(ChannelMessage.programChange(1, 60), ChannelMessage.tryProgramChange(1, 60));
+
+        assertNull(ChannelMessage.tryNoteOn(16, 60, 50));
+        assertNull(ChannelMessage.tryNoteOn(0, 128, 50));
+        assertNull(ChannelMessage.tryNoteOff(0, 60, -1));
+        assertNull(ChannelMessage.tryPolyphonicKeyPressure(-1, 60, 50));
+        assertNull(ChannelMessage.tryProgramChange(0, 128));
+    }
+
+    @Test
+    public void testUncheckedFactories() throws MidiException {
+        assertEquals(ChannelMessage.noteOn(1, 60, 50), ChannelMessage.uncheckedNoteOn(1, 60, 50));
+        assertEquals(ChannelMessage.noteOff(1, 60, 50), ChannelMessage.uncheckedNoteOff(1, 60, 50));
+        assertEquals(ChannelMessage.polyphonicKeyPressure(1, 60, 50), ChannelMessage.uncheckedPolyphonicKeyPressure(1, 60, 50));
+        assertEquals(ChannelMessage.programChange(1, 60), ChannelMessage.uncheckedProgramChange(1, 60));
+    }
+
+    @Test
+    public void testExceptionWithoutStackTrace() {
+        MidiException exception = new MidiException("Invalid channel", false);
+        assertEquals("Invalid channel", exception.getMessage());
+        assertEquals(0, exception.getStackTrace().length);
+    }
 }
@@ -9,6 +9,8 @@ import com.strangekey.midi.MetaMessage.Type;
 
 import org.junit.Test;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
@@ -126,6 +128,70 @@ public class MetaMessageTest {
         assertTrue(Arrays.equals(expected, actual));
     }
 
+    @Test
+    public void testLongTextMessageToBytes() throws MidiException {
+        byte[] text = new byte[300];
+        Arrays.fill(text, (byte) 'x');
+        MetaMessage textMessage = MetaMessage.textMessage(new String(text));
+        byte[] actual = textMessage.toBytes();
+
+        assertEquals(1 + 1 + 2 + 300, actual.length);
+        assertEquals(textMessage.getLength(), actual.length);
+        assertEquals((byte) 0x82, actual[2]);
+        assertEquals((byte) 0x2C, actual[3]);
+        assertTrue(Arrays.equals(text, Arrays.copyOfRange(actual, 4, actual.length)));
+    }
+
+    @Test
+    public void testWriteTo() throws MidiException {
+        MetaMessage setTempo = MetaMessage.tempoMessage(60);
+
+        byte[] dst = new byte[setTempo.getLength() + 1];
+        assertEquals(setTempo.getLength(), setTempo.writeTo(dst, 1));
+        assertTrue(Arrays.equals(setTempo.toBytes(), Arrays.copyOfRange(dst, 1, dst.length)));
+
+        ByteBuffer buffer = ByteBuffer.allocate(setTempo.getLength());
+        setTempo.writeTo(buffer);
+        assertTrue(Arrays.equals(setTempo.toBytes(), buffer.array()));
+    }
+
+    @Test
+    public void testEncodingIsCached() throws MidiException {
+        MetaMessage setTempo = MetaMessage.tempoMessage(60);
+        assertTrue(setTempo.toBytes() == setTempo.toBytes());
+    }
+
+    @Test
+    public void testLongPayloadMessageToBytes() {
+        byte[] text = new byte[200];
+        Arrays.fill(text, (byte) 'y');
+        ByteBuffer payload = ByteBuffer.allocate(text.length + 2);
+        payload.position(1);
+        payload.put(text);
+        payload.position(1).limit(1 + text.length);
+        MetaMessage lyric = new MetaMessage(Type.LYRIC_TEXT.value, payload.slice());
+
+        byte[] actual = lyric.toBytes();
+        assertEquals(1 + 1 + 2 + 200, lyric.getLength());
+        assertEquals(lyric.getLength(), actual.length);
+        assertEquals((byte) 0x81, actual[2]);
+        assertEquals((byte) 0x48, actual[3]);
+        assertTrue(Arrays.equals(text, Arrays.copyOfRange(actual, 4, actual.length)));
+        assertTrue(Arrays.equals(text, lyric.getData()));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testWriteToArrayTooSmall() throws MidiException {
+        MetaMessage setTempo = MetaMessage.tempoMessage(60);
+        setTempo.writeTo(new byte[setTempo.getLength()], 1);
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testWriteToBufferTooSmall() throws MidiException {
+        MetaMessage setTempo = MetaMessage.tempoMessage(60);
+        setTempo.writeTo(ByteBuffer.allocate(setTempo.getLength() - 1));
+    }
+
     private static int toInt(byte[] bytes) {
         int value = 0;
         for (int i = 0; i < bytes.length; i++) {
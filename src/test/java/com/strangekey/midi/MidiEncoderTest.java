@@ -0,0 +1,70 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MidiEncoderTest {
+
+    private static final int SMALL_BUFFER_SIZE = 16;
+
+    @Test
+    public void testWriteVariableLengthField() throws IOException {
+        long[] values = new long[]{0x00, 0x7F, 0x80, 0x2000, 0x3FFF, 0x4000, 0x1FFFFF, 0x200000, 0xFFFFFFF};
+
+        for (long value : values) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MidiEncoder encoder = new MidiEncoder(out, SMALL_BUFFER_SIZE);
+            encoder.writeVariableLengthField(value);
+            encoder.flush();
+            assertTrue(Arrays.equals(MidiFileUtils.getVariableLengthFieldBytes(value), out.toByteArray()));
+        }
+    }
+
+    @Test
+    public void testWriteIntegers() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiEncoder encoder = new MidiEncoder(out, SMALL_BUFFER_SIZE);
+        encoder.writeShort(192);
+        encoder.writeInt(0x01020304);
+        encoder.writeByte(0xFF);
+        encoder.flush();
+
+        byte[] expected = new byte[]{0, (byte) 192, 1, 2, 3, 4, (byte) 0xFF};
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+    }
+
+    @Test
+    public void testWriteMessagesLargerThanBuffer() throws IOException, MidiException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiEncoder encoder = new MidiEncoder(out, SMALL_BUFFER_SIZE);
+
+        ChannelMessage noteOn = ChannelMessage.noteOn(1, 60, 100);
+        byte[] text = new byte[200];
+        Arrays.fill(text, (byte) 'a');
+        MetaMessage textMessage = MetaMessage.textMessage(new String(text));
+
+        encoder.writeMessage(noteOn);
+        encoder.writeMessage(textMessage);
+        encoder.flush();
+
+        byte[] actual = out.toByteArray();
+        assertEquals(noteOn.getLength() + textMessage.getLength(), actual.length);
+        assertTrue(Arrays.equals(noteOn.getData(), Arrays.copyOfRange(actual, 0, 3)));
+        assertEquals(MetaMessage.META_STATUS_BYTE, actual[3]);
+        assertEquals(MetaMessage.Type.TEXT.value, actual[4]);
+        assertEquals((byte) 0x81, actual[5]);
+        assertEquals((byte) 0x48, actual[6]);
+        assertTrue(Arrays.equals(text, Arrays.copyOfRange(actual, 7, actual.length)));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class MidiEventParserTest {
+
+    @Test
+    public void testParseWrittenSequence() throws MidiException, IOException {
+        Sequence sequence = MidiFileReaderTest.createSequence();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, out);
+
+        for (int bufferSize : new int[]{16, 100, MidiEventParser.DEFAULT_BUFFER_SIZE}) {
+            SequenceBuilder builder = new SequenceBuilder();
+            new MidiEventParser(bufferSize).parse(new ByteArrayInputStream(out.toByteArray()), builder);
+            MidiFileReaderTest.assertSequenceEquals(sequence, builder.sequence);
+        }
+    }
+
+    @Test
+    public void testRunningStatus() throws MidiException, IOException {
+        byte[] events = new byte[]{
+                0x00, (byte) 0x90, 60, 100,
+                0x10, 62, 100,
+                0x00, (byte) 0xFF, 0x01, 0x01, 'a',
+                0x00, (byte) 0xD3, 7,
+                0x00, 8,
+                0x00, (byte) 0xFF, 0x2F, 0x00};
+        byte[] file = MidiFileReaderTest.createFile(events);
+
+        SequenceBuilder builder = new SequenceBuilder();
+        new MidiEventParser().parse(Channels.newChannel(new ByteArrayInputStream(file)), builder);
+
+        assertEquals(96, builder.sequence.getResolution());
+        assertEquals(1, builder.sequence.getNumTracks());
+        Track expected = MidiFileReader.read(ByteBuffer.wrap(file)).getTrackAt(0);
+        Track actual = builder.sequence.getTrackAt(0);
+        assertEquals(6, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test(expected = MidiException.class)
+    public void testTruncatedFile() throws MidiException, IOException {
+        byte[] file = MidiFileReaderTest.createFile(new byte[]{0x00, (byte) 0x90, 60, 100});
+        new MidiEventParser().parse(new ByteArrayInputStream(Arrays.copyOf(file, file.length - 1)), new MidiEventHandler() {
+        });
+    }
+
+    @Test(expected = MidiException.class)
+    public void testEventExceedsTrackChunk() throws MidiException, IOException {
+        byte[] file = MidiFileReaderTest.createFile(new byte[]{0x00, (byte) 0x90, 60, 100, 0x00, (byte) 0xFF, 0x01, 0x05, 'a'});
+        new MidiEventParser().parse(new ByteArrayInputStream(file), new MidiEventHandler() {
+        });
+    }
+
+    private static class SequenceBuilder implements MidiEventHandler {
+
+        private Sequence sequence;
+        private Track track;
+
+        @Override
+        public void onHeader(int format, int numTracks, int division) {
+            sequence = new Sequence(division);
+        }
+
+        @Override
+        public void onTrackStart(int track) {
+            this.track = sequence.createTrack();
+        }
+
+        @Override
+        public void onChannelMessage(int track, long timeIndex, int status, int dataOne, int dataTwo) {
+            this.track.add(new MidiEvent(ChannelMessage.unpack(ChannelMessage.pack(status, dataOne, dataTwo)), timeIndex));
+        }
+
+        @Override
+        public void onMetaMessage(int track, long timeIndex, int type, byte[] data, int offset, int length) {
+            this.track.add(new MidiEvent(new MetaMessage((byte) type, Arrays.copyOfRange(data, offset, offset + length)), timeIndex));
+        }
+
+        @Override
+        public void onSysexMessage(int track, long timeIndex, int status, byte[] data, int offset, int length) {
+            this.track.add(new MidiEvent(new SysexMessage((byte) status, ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length))), timeIndex));
+        }
+
+        @Override
+        public void onTrackEnd(int track, long timeIndex) {
+            this.track.updateEndOfTrackTimeIndex(timeIndex);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MidiFileReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws MidiException, IOException {
+        Sequence sequence = createSequence();
+        File file = folder.newFile("round-trip.mid");
+        MidiFileWriter.write(sequence, file.toPath());
+
+        for (Track.Storage storage : Track.Storage.values()) {
+            Sequence read = MidiFileReader.read(file.toPath(), storage);
+            assertSequenceEquals(sequence, read);
+            assertTrue(Arrays.equals(writeToByteArray(sequence), writeToByteArray(read)));
+        }
+    }
+
+    @Test
+    public void testReadLazilyRoundTrip() throws MidiException, IOException {
+        Sequence sequence = createSequence();
+        File file = folder.newFile("lazy.mid");
+        MidiFileWriter.write(sequence, file.toPath());
+
+        for (Track.Storage storage : Track.Storage.values()) {
+            Sequence read = MidiFileReader.readLazily(file.toPath(), storage);
+            assertSequenceEquals(sequence, read);
+            assertTrue(read.getTrackAt(1) == read.getTrackAt(1));
+        }
+    }
+
+    @Test
+    public void testReadLazilyOnlyDecodesRequestedTracks() throws MidiException {
+        byte[] validTrack = createFile(new byte[]{0x00, (byte) 0x90, 60, 100, 0x00, (byte) 0xFF, 0x2F, 0x00});
+        byte[] invalidTrack = new byte[]{'M', 'T', 'r', 'k', 0, 0, 0, 2, 0x00, 60};
+        byte[] file = Arrays.copyOf(validTrack, validTrack.length + invalidTrack.length);
+        System.arraycopy(invalidTrack, 0, file, validTrack.length, invalidTrack.length);
+        file[11] = 2;
+
+        Sequence sequence = MidiFileReader.readLazily(ByteBuffer.wrap(file));
+        assertEquals(2, sequence.getNumTracks());
+        assertEquals(ChannelMessage.noteOn(0, 60, 100), sequence.getTrackAt(0).get(0).getMessage());
+
+        try {
+            sequence.getTrackAt(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof MidiException);
+        }
+    }
+
+    @Test
+    public void testRunningStatus() throws MidiException {
+        byte[] events = new byte[]{
+                0x00, (byte) 0x90, 60, 100,
+                0x10, 62, 100,
+                0x10, 60, 0,
+                0x00, (byte) 0xC1, 5,
+                0x00, 6,
+                0x00, (byte) 0xFF, 0x2F, 0x00};
+
+        Sequence sequence = MidiFileReader.read(ByteBuffer.wrap(createFile(events)));
+        Track track = sequence.getTrackAt(0);
+
+        assertEquals(6, track.size());
+        assertEquals(ChannelMessage.noteOn(0, 60, 100), track.get(0).getMessage());
+        assertEquals(ChannelMessage.noteOn(0, 62, 100), track.get(1).getMessage());
+        assertEquals(16, track.get(1).getTimeIndex());
+        assertEquals(ChannelMessage.noteOn(0, 60, 0), track.get(2).getMessage());
+        assertEquals(ChannelMessage.programChange(1, 5), track.get(3).getMessage());
+        assertEquals(ChannelMessage.programChange(1, 6), track.get(4).getMessage());
+        assertEquals(32, track.getTotalTime());
+    }
+
+    @Test
+    public void testUnknownMetaEventsAndChunks() throws MidiException {
+        byte[] events = new byte[]{
+                0x00, (byte) 0xFF, 0x7F, 0x03, 1, 2, 3,
+                0x05, (byte) 0xF0, 0x03, 0x43, 0x12, (byte) 0xF7,
+                0x00, (byte) 0xFF, 0x2F, 0x00};
+        byte[] file = createFile(events);
+        byte[] unknownChunk = new byte[]{'X', 'F', 'I', 'H', 0, 0, 0, 2, 9, 9};
+        byte[] withUnknownChunk = new byte[file.length + unknownChunk.length];
+        System.arraycopy(file, 0, withUnknownChunk, 0, 14);
+        System.arraycopy(unknownChunk, 0, withUnknownChunk, 14, unknownChunk.length);
+        System.arraycopy(file, 14, withUnknownChunk, 14 + unknownChunk.length, file.length - 14);
+
+        Track track = MidiFileReader.read(ByteBuffer.wrap(withUnknownChunk)).getTrackAt(0);
+
+        assertEquals(3, track.size());
+        MetaMessage unknownMeta = (MetaMessage) track.get(0).getMessage();
+        assertEquals(0x7F, unknownMeta.getType());
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, unknownMeta.getData()));
+        assertEquals(SysexMessage.sysexMessage(new byte[]{0x43, 0x12, (byte) 0xF7}), track.get(1).getMessage());
+        assertEquals(5, track.get(1).getTimeIndex());
+    }
+
+    @Test(expected = MidiException.class)
+    public void testInvalidHeader() throws MidiException {
+        MidiFileReader.read(ByteBuffer.wrap(new byte[]{'M', 'T', 'r', 'k', 0, 0, 0, 6, 0, 1, 0, 1, 0, 96}));
+    }
+
+    @Test(expected = MidiException.class)
+    public void testTruncatedTrack() throws MidiException {
+        byte[] file = createFile(new byte[]{0x00, (byte) 0x90, 60, 100});
+        MidiFileReader.read(ByteBuffer.wrap(Arrays.copyOf(file, file.length - 1)));
+    }
+
+    @Test(expected = MidiException.class)
+    public void testDataByteWithoutRunningStatus() throws MidiException {
+        MidiFileReader.read(ByteBuffer.wrap(createFile(new byte[]{0x00, 60, 100})));
+    }
+
+    static Sequence createSequence() throws MidiException {
+        Sequence sequence = new Sequence(480);
+        Track trackZero = sequence.createTrack();
+        trackZero.add(new MidiEvent(MetaMessage.tempoMessage(120), 0));
+        trackZero.add(new MidiEvent(MetaMessage.timeSignatureMessage(6, 8), 0));
+        trackZero.add(new MidiEvent(MetaMessage.markerTextMessage("verse"), 1920));
+        trackZero.add(new MidiEvent(MetaMessage.tempoMessage(90), 3840));
+
+        Track trackOne = sequence.createTrack(Track.Storage.PACKED);
+        trackOne.add(new MidiEvent(SysexMessage.sysexMessage(new byte[]{0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7}), 0));
+        trackOne.add(new MidiEvent(ChannelMessage.programChange(2, 40), 0));
+        char[] lyric = new char[200];
+        Arrays.fill(lyric, 'l');
+        trackOne.add(new MidiEvent(MetaMessage.lyricTextMessage(new String(lyric)), 10));
+        for (int i = 0; i < 300; i++) {
+            trackOne.add(new MidiEvent(ChannelMessage.noteOn(2, 30 + i % 60, 90), i * 120));
+            trackOne.add(new MidiEvent(ChannelMessage.noteOff(2, 30 + i % 60, 64), i * 120 + 100));
+            trackOne.add(new MidiEvent(ChannelMessage.polyphonicKeyPressure(2, 30 + i % 60, i % 128), i * 120 + 50));
+        }
+        trackOne.add(new MidiEvent(ChannelMessage.unpack(ChannelMessage.pack(0xD2, 100, 0)), 50000));
+        trackOne.add(new MidiEvent(ChannelMessage.unpack(ChannelMessage.pack(0xE2, 0, 64)), 50001));
+
+        sequence.createTrack();
+        return sequence;
+    }
+
+    static void assertSequenceEquals(Sequence expected, Sequence actual) {
+        assertEquals(expected.getResolution(), actual.getResolution());
+        assertEquals(expected.getNumTracks(), actual.getNumTracks());
+        for (int i = 0; i < expected.getNumTracks(); i++) {
+            Track expectedTrack = expected.getTrackAt(i);
+            Track actualTrack = actual.getTrackAt(i);
+            assertEquals(expectedTrack.size(), actualTrack.size());
+            assertEquals(expectedTrack.getLength(), actualTrack.getLength());
+            for (int j = 0; j < expectedTrack.size(); j++) {
+                assertEquals(expectedTrack.get(j), actualTrack.get(j));
+            }
+        }
+    }
+
+    static byte[] createFile(byte[] events) {
+        ByteBuffer file = ByteBuffer.allocate(14 + 8 + events.length);
+        file.put(new byte[]{'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0, 96});
+        file.put(new byte[]{'M', 'T', 'r', 'k'});
+        file.putInt(events.length);
+        file.put(events);
+        return file.array();
+    }
+
+    private static byte[] writeToByteArray(Sequence sequence) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, out);
+        return out.toByteArray();
+    }
+}
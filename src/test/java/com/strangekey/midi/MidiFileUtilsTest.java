@@ -7,8 +7,10 @@ package com.strangekey.midi;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class MidiFileUtilsTest {
@@ -120,4 +122,55 @@ public class MidiFileUtilsTest {
         int max = MidiFileUtils.getVariableLengthFieldByteLength(0xFFFFFFF);
         assertTrue(max == 4);
     }
+
+    @Test
+    public void testWriteAndReadVariableLengthFieldRoundTrip() throws MidiException {
+        long[] values = new long[]{0x00, 0x7F, 0x80, 0x3FFF, 0x4000, 0x1FFFFF, 0x200000, 0x8000000, 0xFFFFFFF};
+        for (long value : values) {
+            byte[] expected = MidiFileUtils.getVariableLengthFieldBytes(value);
+
+            byte[] array = new byte[expected.length + 2];
+            int length = MidiFileUtils.writeVariableLengthField(value, array, 1);
+            assertEquals(expected.length, length);
+            assertTrue(Arrays.equals(expected, Arrays.copyOfRange(array, 1, 1 + length)));
+
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            MidiFileUtils.writeVariableLengthField(value, buffer);
+            assertEquals(expected.length, buffer.position());
+            buffer.flip();
+            assertEquals(value, MidiFileUtils.readVariableLengthField(buffer));
+            assertEquals(expected.length, buffer.position());
+
+            ByteBuffer exact = ByteBuffer.wrap(expected);
+            assertEquals(value, MidiFileUtils.readVariableLengthField(exact));
+            assertEquals(0, exact.remaining());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteVariableLengthFieldTooLarge() {
+        MidiFileUtils.writeVariableLengthField(0x10000000, new byte[8], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteVariableLengthFieldNegative() {
+        MidiFileUtils.writeVariableLengthField(-1, ByteBuffer.allocate(8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableLengthFieldByteLengthTooLarge() {
+        MidiFileUtils.getVariableLengthFieldByteLength(0x10000000);
+    }
+
+    @Test(expected = MidiException.class)
+    public void testReadVariableLengthFieldTooLong() throws MidiException {
+        MidiFileUtils.readVariableLengthField(ByteBuffer.wrap(new byte[]{(byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00}));
+    }
+
+    @Test
+    public void testReadVariableLengthFieldNonCanonical() throws MidiException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, 0x05, 0x11});
+        assertEquals(5, MidiFileUtils.readVariableLengthField(buffer));
+        assertEquals(3, buffer.position());
+    }
 }
@@ -5,12 +5,27 @@
  */
 package com.strangekey.midi;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -28,6 +43,9 @@ public class MidiFileWriterTest {
     private static final int TRACK_LENGTH = 4;
     private static final int TRACK_HEADER_SIZE_BYTES = TRACK_ID + TRACK_LENGTH;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testWriteSequenceSingleTrackOneEvent() throws MidiException, IOException {
         Sequence sequence = new Sequence();
@@ -105,6 +123,263 @@ public class MidiFileWriterTest {
         checkTrackHeader(midiFileBytes, getTrackTwoOffset(trackZero, trackOne), trackTwo.getLength());
     }
 
+    @Test
+    public void testWriteSequenceToPath() throws MidiException, IOException {
+        Sequence sequence = createMultipleTrackSequence();
+
+        File file = folder.newFile("sequence.mid");
+        MidiFileWriter.write(sequence, file.toPath());
+
+        assertTrue(Arrays.equals(writeToByteArray(sequence), Files.readAllBytes(file.toPath())));
+    }
+
+    @Test
+    public void testWriteSequenceToNonGatheringChannel() throws MidiException, IOException {
+        Sequence sequence = createMultipleTrackSequence();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, Channels.newChannel(out));
+
+        assertTrue(Arrays.equals(writeToByteArray(sequence), out.toByteArray()));
+    }
+
+    @Test
+    public void testWriteSequenceInParallel() throws MidiException, IOException {
+        Sequence sequence = new Sequence();
+        for (int i = 0; i < 20; i++) {
+            Track track = sequence.createTrack(i % 2 == 0 ? Track.Storage.OBJECTS : Track.Storage.PACKED);
+            track.add(new MidiEvent(ChannelMessage.programChange(i % 16, i), 0));
+            for (int j = 0; j < 500; j++) {
+                track.add(new MidiEvent(ChannelMessage.noteOn(i % 16, j % 128, 80), j * i));
+            }
+        }
+        byte[] expected = writeToByteArray(sequence);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.writeParallel(sequence, Channels.newChannel(out));
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            File file = folder.newFile("parallel.mid");
+            MidiFileWriter.write(sequence, file.toPath(), executor);
+            assertTrue(Arrays.equals(expected, Files.readAllBytes(file.toPath())));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWriteInParallelFromForkJoinTask() throws Exception {
+        final Sequence sequence = createMultipleTrackSequence();
+        byte[] expected = writeToByteArray(sequence);
+
+        // the only worker of the pool waits for the tracks it submitted to the same pool
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            byte[] written = pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    MidiFileWriter.write(sequence, Channels.newChannel(out), pool);
+                    return out.toByteArray();
+                }
+            }).get();
+            assertTrue(Arrays.equals(expected, written));
+        } finally {
+            pool.shutdown();
+        }
+
+        List<byte[]> files = Collections.nCopies(8, expected).parallelStream().map(new Function<byte[], byte[]>() {
+            @Override
+            public byte[] apply(byte[] bytes) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try {
+                    MidiFileWriter.writeParallel(sequence, Channels.newChannel(out));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return out.toByteArray();
+            }
+        }).collect(Collectors.<byte[]>toList());
+        for (byte[] file : files) {
+            assertTrue(Arrays.equals(expected, file));
+        }
+    }
+
+    @Test
+    public void testWriteUserMessage() throws MidiException, IOException {
+        // implements only the methods MidiMessage had before writeTo was added
+        MidiMessage userMessage = new MidiMessage() {
+            @Override
+            public byte[] getData() {
+                return new byte[]{60, 100};
+            }
+
+            @Override
+            public byte[] toBytes() {
+                return new byte[]{(byte) 0x90, 60, 100};
+            }
+
+            @Override
+            public int getLength() {
+                return 3;
+            }
+        };
+        Sequence sequence = new Sequence();
+        sequence.createTrack().add(new MidiEvent(userMessage, 10));
+        Sequence expected = new Sequence();
+        expected.createTrack().add(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 10));
+
+        assertTrue(Arrays.equals(writeToByteArray(expected), writeToByteArray(sequence)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, Channels.newChannel(out));
+        assertTrue(Arrays.equals(writeToByteArray(expected), out.toByteArray()));
+
+        ByteArrayOutputStream formatZero = new ByteArrayOutputStream();
+        MidiFileWriter.writeFormatZero(sequence, formatZero);
+        ByteArrayOutputStream expectedFormatZero = new ByteArrayOutputStream();
+        MidiFileWriter.writeFormatZero(expected, expectedFormatZero);
+        assertTrue(Arrays.equals(expectedFormatZero.toByteArray(), formatZero.toByteArray()));
+    }
+
+    @Test
+    public void testWriteWithRunningStatus() throws MidiException, IOException {
+        Sequence sequence = new Sequence();
+        Track track = sequence.createTrack();
+        track.add(new MidiEvent(ChannelMessage.noteOn(9, 36, 100), 0));
+        track.add(new MidiEvent(ChannelMessage.noteOn(9, 42, 100), 0));
+        track.add(new MidiEvent(ChannelMessage.noteOff(9, 36, 64), 10));
+        track.add(new MidiEvent(ChannelMessage.noteOff(9, 42, 64), 10));
+        track.add(new MidiEvent(MetaMessage.textMessage("x"), 10));
+        track.add(new MidiEvent(ChannelMessage.noteOff(9, 38, 64), 20));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, out, MidiFileWriter.Option.RUNNING_STATUS);
+        byte[] expectedEvents = new byte[]{
+                0, (byte) 0x99, 36, 100,
+                0, 42, 100,
+                10, (byte) 0x89, 36, 64,
+                0, 42, 64,
+                0, (byte) 0xFF, 1, 1, 'x',
+                10, (byte) 0x89, 38, 64,
+                0, (byte) 0xFF, 0x2F, 0};
+        assertTrue(Arrays.equals(createFormatOneFile(expectedEvents), out.toByteArray()));
+
+        out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, out, MidiFileWriter.Option.RUNNING_STATUS, MidiFileWriter.Option.NOTE_OFF_AS_ZERO_VELOCITY_NOTE_ON);
+        expectedEvents = new byte[]{
+                0, (byte) 0x99, 36, 100,
+                0, 42, 100,
+                10, 36, 0,
+                0, 42, 0,
+                0, (byte) 0xFF, 1, 1, 'x',
+                10, (byte) 0x99, 38, 0,
+                0, (byte) 0xFF, 0x2F, 0};
+        assertTrue(Arrays.equals(createFormatOneFile(expectedEvents), out.toByteArray()));
+    }
+
+    @Test
+    public void testWriteWithRunningStatusToChannelAndReadBack() throws MidiException, IOException {
+        Sequence sequence = MidiFileReaderTest.createSequence();
+        File file = folder.newFile("running-status.mid");
+        MidiFileWriter.write(sequence, file.toPath(), MidiFileWriter.Option.RUNNING_STATUS);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, out, MidiFileWriter.Option.RUNNING_STATUS);
+        byte[] written = Files.readAllBytes(file.toPath());
+        assertTrue(Arrays.equals(out.toByteArray(), written));
+
+        MidiFileReaderTest.assertSequenceEquals(sequence, MidiFileReader.read(file.toPath()));
+    }
+
+    @Test
+    public void testWriteFormatZero() throws MidiException, IOException {
+        Sequence sequence = new Sequence();
+        Track trackZero = sequence.createTrack();
+        trackZero.add(new MidiEvent(MetaMessage.tempoMessage(120), 0));
+        trackZero.add(new MidiEvent(MetaMessage.textMessage("x"), 10));
+        trackZero.add(new MidiEvent(MetaMessage.textMessage("y"), 30));
+        Track trackOne = sequence.createTrack(Track.Storage.PACKED);
+        trackOne.add(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 0));
+        trackOne.add(new MidiEvent(ChannelMessage.noteOff(0, 60, 64), 10));
+        trackOne.add(new MidiEvent(ChannelMessage.noteOn(0, 62, 100), 20));
+        sequence.createTrack();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.writeFormatZero(sequence, out);
+        byte[] expectedEvents = new byte[]{
+                0, (byte) 0xFF, 0x51, 3, 0x07, (byte) 0xA1, 0x20,
+                0, (byte) 0x90, 60, 100,
+                10, (byte) 0xFF, 1, 1, 'x',
+                0, (byte) 0x80, 60, 64,
+                10, (byte) 0x90, 62, 100,
+                10, (byte) 0xFF, 1, 1, 'y',
+                0, (byte) 0xFF, 0x2F, 0};
+        assertTrue(Arrays.equals(createFormatZeroFile(expectedEvents), out.toByteArray()));
+    }
+
+    @Test
+    public void testWriteFormatZeroWithRunningStatusAndReadBack() throws MidiException, IOException {
+        Sequence sequence = createMultipleTrackSequence();
+        File file = folder.newFile("format-zero.mid");
+        MidiFileWriter.writeFormatZero(sequence, file.toPath(), MidiFileWriter.Option.RUNNING_STATUS);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.writeFormatZero(sequence, out, MidiFileWriter.Option.RUNNING_STATUS);
+        assertTrue(Arrays.equals(out.toByteArray(), Files.readAllBytes(file.toPath())));
+
+        Sequence read = MidiFileReader.read(file.toPath());
+        assertEquals(1, read.getNumTracks());
+        Track track = read.getTrackAt(0);
+        MergedTrackIterator events = sequence.mergedIterator();
+        int index = 0;
+        while (events.hasNext()) {
+            MidiEvent event = events.next();
+            if (!events.isEndOfTrack()) {
+                assertEquals(event, track.get(index++));
+            }
+        }
+        assertEquals(track.size() - 1, index);
+        assertEquals(sequence.getTimeIndexLength(), track.getTotalTime());
+    }
+
+    private byte[] createFormatZeroFile(byte[] events) {
+        byte[] file = MidiFileReaderTest.createFile(events);
+        file[13] = (byte) 192;
+        return file;
+    }
+
+    private byte[] createFormatOneFile(byte[] events) {
+        byte[] file = MidiFileReaderTest.createFile(events);
+        file[9] = 1;
+        file[13] = (byte) 192;
+        return file;
+    }
+
+    private Sequence createMultipleTrackSequence() throws MidiException {
+        Sequence sequence = new Sequence();
+        Track trackZero = sequence.createTrack();
+        trackZero.add(new MidiEvent(MetaMessage.tempoMessage(60), 0));
+        trackZero.add(new MidiEvent(MetaMessage.textMessage("a somewhat longer text message"), 2000));
+
+        Track trackOne = sequence.createTrack(Track.Storage.PACKED);
+        for (int i = 0; i < 1000; i++) {
+            trackOne.add(new MidiEvent(ChannelMessage.noteOn(i % 16, i % 128, 80), i * 10));
+            trackOne.add(new MidiEvent(ChannelMessage.noteOff(i % 16, i % 128, 0), i * 10 + 200));
+        }
+
+        sequence.createTrack();
+        return sequence;
+    }
+
+    private byte[] writeToByteArray(Sequence sequence) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, out);
+        return out.toByteArray();
+    }
+
     private int getTrackTwoOffset(Track trackZero, Track trackOne) {
         return getTrackOneOffset(trackZero) + TRACK_HEADER_SIZE_BYTES + trackOne.getLength();
     }
@@ -155,7 +430,7 @@ public class MidiFileWriterTest {
         assertTrue(midiFileBytes.get(offset++) == MidiFileWriter.k);
 
         // track length
-        byte[] trackLengthBytes = MidiFileWriter.intToBytes(trackLength, 4);
+        byte[] trackLengthBytes = intToBytes(trackLength);
         assertTrue(midiFileBytes.get(offset++) == trackLengthBytes[0]);
         assertTrue(midiFileBytes.get(offset++) == trackLengthBytes[1]);
         assertTrue(midiFileBytes.get(offset++) == trackLengthBytes[2]);
@@ -172,6 +447,10 @@ public class MidiFileWriterTest {
         assertTrue(endOffset - dataOffset == trackLength);
     }
 
+    private static byte[] intToBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
     private OutputStream getFakeOutputStream(final List<Byte> midiFileBytes) {
         OutputStream out = new OutputStream() {
 
@@ -183,8 +462,13 @@ public class MidiFileWriterTest {
 
             @Override
             public void write(byte[] bytes) throws IOException {
-                for (byte b : bytes) {
-                    midiFileBytes.add(b);
+                write(bytes, 0, bytes.length);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                for (int i = offset; i < offset + length; i++) {
+                    midiFileBytes.add(bytes[i]);
                 }
             }
         };
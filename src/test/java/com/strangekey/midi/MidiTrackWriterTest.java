@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MidiTrackWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStreamedFileMatchesWrittenSequence() throws MidiException, IOException {
+        Sequence sequence = MidiFileReaderTest.createSequence();
+        File file = folder.newFile("streamed.mid");
+
+        MidiTrackWriter writer = MidiTrackWriter.open(file.toPath(), sequence.getResolution());
+        for (int i = 0; i < sequence.getNumTracks(); i++) {
+            Track track = sequence.getTrackAt(i);
+            writer.beginTrack();
+            for (int j = 0; j < track.size(); j++) {
+                writer.event(track.get(j));
+            }
+            writer.endTrack();
+        }
+        writer.close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, out);
+        assertTrue(Arrays.equals(out.toByteArray(), Files.readAllBytes(file.toPath())));
+    }
+
+    @Test
+    public void testEndTrackAfterLastEventAndCloseOpenTrack() throws MidiException, IOException {
+        File file = folder.newFile("padded.mid");
+
+        MidiTrackWriter writer = MidiTrackWriter.open(file.toPath(), 96);
+        writer.beginTrack();
+        writer.event(10, ChannelMessage.noteOn(0, 60, 100));
+        writer.endTrack(500);
+        writer.beginTrack();
+        writer.event(20, ChannelMessage.noteOn(1, 60, 100));
+        writer.close();
+
+        Sequence sequence = MidiFileReader.read(file.toPath());
+        assertEquals(96, sequence.getResolution());
+        assertEquals(2, sequence.getNumTracks());
+        assertEquals(500, sequence.getTrackAt(0).getTotalTime());
+        assertEquals(20, sequence.getTrackAt(1).getTotalTime());
+        assertEquals(ChannelMessage.noteOn(1, 60, 100), sequence.getTrackAt(1).get(0).getMessage());
+    }
+
+    @Test
+    public void testWriteAfterExistingDataAndCloseTwice() throws MidiException, IOException {
+        File file = folder.newFile("offset.mid");
+        byte[] prefix = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        channel.write(ByteBuffer.wrap(prefix));
+        MidiTrackWriter writer = new MidiTrackWriter(channel, 96);
+        writer.beginTrack();
+        writer.event(10, ChannelMessage.noteOn(0, 60, 100));
+        writer.endTrack();
+        writer.beginTrack();
+        writer.event(20, ChannelMessage.noteOn(1, 60, 100));
+        writer.endTrack();
+        writer.close();
+        writer.close();
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertTrue(Arrays.equals(prefix, Arrays.copyOf(bytes, prefix.length)));
+        Sequence sequence = MidiFileReader.read(ByteBuffer.wrap(bytes, prefix.length, bytes.length - prefix.length).slice());
+        assertEquals(2, sequence.getNumTracks());
+        assertEquals(10, sequence.getTrackAt(0).getTimeIndex(0));
+        assertEquals(20, sequence.getTrackAt(1).getTimeIndex(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEventOutOfOrder() throws MidiException, IOException {
+        MidiTrackWriter writer = MidiTrackWriter.open(folder.newFile("unordered.mid").toPath(), 96);
+        try {
+            writer.beginTrack();
+            writer.event(10, ChannelMessage.noteOn(0, 60, 100));
+            writer.event(5, ChannelMessage.noteOn(0, 62, 100));
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEventWithoutTrack() throws MidiException, IOException {
+        MidiTrackWriter writer = MidiTrackWriter.open(folder.newFile("no-track.mid").toPath(), 96);
+        try {
+            writer.event(10, ChannelMessage.noteOn(0, 60, 100));
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -7,6 +7,17 @@ package com.strangekey.midi;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class SequenceTest {
@@ -31,4 +42,70 @@ public class SequenceTest {
 
         assertTrue(seq.getTimeIndexLength() == 50);
     }
+
+    @Test
+    public void testMergedIterator() throws MidiException {
+        Sequence seq = new Sequence(192);
+        Track trackOne = seq.createTrack();
+        Track trackTwo = seq.createTrack(Track.Storage.PACKED);
+        seq.createTrack();
+
+        trackOne.add(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 10));
+        trackOne.add(new MidiEvent(ChannelMessage.noteOff(0, 60, 0), 30));
+        trackTwo.add(new MidiEvent(ChannelMessage.noteOn(1, 62, 100), 0));
+        trackTwo.add(new MidiEvent(ChannelMessage.noteOn(1, 64, 100), 10));
+        trackTwo.add(new MidiEvent(ChannelMessage.noteOff(1, 62, 0), 20));
+        trackTwo.add(new MidiEvent(ChannelMessage.noteOff(1, 64, 0), 40));
+
+        List<Long> timeIndexes = new ArrayList<Long>();
+        List<Integer> trackIndexes = new ArrayList<Integer>();
+        int numEndOfTracks = 0;
+        MergedTrackIterator iterator = seq.mergedIterator();
+        while (iterator.hasNext()) {
+            MidiEvent event = iterator.next();
+            timeIndexes.add(event.getTimeIndex());
+            trackIndexes.add(iterator.getTrackIndex());
+            if (iterator.isEndOfTrack()) {
+                Track track = seq.getTrackAt(iterator.getTrackIndex());
+                assertSame(track.get(track.size() - 1), event);
+                numEndOfTracks++;
+            }
+        }
+
+        assertEquals(Arrays.asList(0L, 0L, 10L, 10L, 20L, 30L, 30L, 40L, 40L), timeIndexes);
+        assertEquals(Arrays.asList(1, 2, 0, 1, 1, 0, 0, 1, 1), trackIndexes);
+        assertEquals(3, numEndOfTracks);
+    }
+
+    @Test
+    public void testTracksStream() throws MidiException {
+        Sequence seq = new Sequence(192);
+        for (int i = 0; i < 8; i++) {
+            Track track = seq.createTrack(i % 2 == 0 ? Track.Storage.OBJECTS : Track.Storage.PACKED);
+            for (int j = 0; j < 100; j++) {
+                track.add(new MidiEvent(ChannelMessage.noteOn(i, j, 100), j));
+            }
+        }
+
+        List<Track> tracks = seq.tracks().parallel().collect(Collectors.<Track>toList());
+        assertEquals(seq.getNumTracks(), tracks.size());
+        for (int i = 0; i < tracks.size(); i++) {
+            assertSame(seq.getTrackAt(i), tracks.get(i));
+        }
+
+        long count = seq.tracks().parallel().flatMap(new Function<Track, Stream<MidiEvent>>() {
+            @Override
+            public Stream<MidiEvent> apply(Track track) {
+                return track.stream();
+            }
+        }).count();
+        assertEquals(8 * 101, count);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMergedIteratorEmptySequence() {
+        MergedTrackIterator iterator = new Sequence().mergedIterator();
+        assertFalse(iterator.hasNext());
+        iterator.next();
+    }
 }
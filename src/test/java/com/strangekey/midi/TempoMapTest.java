@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TempoMapTest {
+
+    @Test
+    public void testDefaultTempo() {
+        TempoMap tempoMap = new TempoMap(new Sequence(480));
+        assertEquals(1, tempoMap.getNumSegments());
+        assertEquals(500000, tempoMap.getMicrosecondsPerQuarterNote(0));
+        assertEquals(0, tempoMap.tickToMicros(0));
+        assertEquals(500000, tempoMap.tickToMicros(480));
+        assertEquals(480, tempoMap.microsToTick(500000));
+    }
+
+    @Test
+    public void testTempoChangesOnSeveralTracks() throws MidiException {
+        Sequence sequence = createSequence();
+        TempoMap tempoMap = new TempoMap(sequence);
+
+        assertEquals(3, tempoMap.getNumSegments());
+        assertEquals(1000000, tempoMap.getMicrosecondsPerQuarterNote(0));
+        assertEquals(1000000, tempoMap.getMicrosecondsPerQuarterNote(959));
+        assertEquals(500000, tempoMap.getMicrosecondsPerQuarterNote(960));
+        assertEquals(250000, tempoMap.getMicrosecondsPerQuarterNote(10000));
+
+        assertEquals(1000000, tempoMap.tickToMicros(480));
+        assertEquals(2000000, tempoMap.tickToMicros(960));
+        assertEquals(2500000, tempoMap.tickToMicros(1440));
+        assertEquals(3000000, tempoMap.tickToMicros(1920));
+        assertEquals(3250000, tempoMap.tickToMicros(2400));
+
+        assertEquals(480, tempoMap.microsToTick(1000000));
+        assertEquals(960, tempoMap.microsToTick(2000000));
+        assertEquals(1440, tempoMap.microsToTick(2500000));
+        assertEquals(2400, tempoMap.microsToTick(3250000));
+    }
+
+    @Test
+    public void testLastTempoOnSameTickWins() throws MidiException {
+        Sequence sequence = new Sequence(480);
+        sequence.createTrack().add(new MidiEvent(MetaMessage.tempoMessage(60), 0));
+        sequence.createTrack().add(new MidiEvent(MetaMessage.tempoMessage(240), 0));
+        TempoMap tempoMap = new TempoMap(sequence);
+
+        assertEquals(1, tempoMap.getNumSegments());
+        assertEquals(250000, tempoMap.getMicrosecondsPerQuarterNote(0));
+    }
+
+    @Test
+    public void testZeroTempoIsIgnored() throws MidiException {
+        Sequence sequence = new Sequence(480);
+        Track track = sequence.createTrack();
+        track.add(new MidiEvent(MetaMessage.tempoMessage(60), 0));
+        track.add(new MidiEvent(new MetaMessage(MetaMessage.Type.TEMPO.value, new byte[]{0, 0, 0}), 480));
+        TempoMap tempoMap = new TempoMap(sequence);
+
+        assertEquals(1, tempoMap.getNumSegments());
+        assertEquals(1000000, tempoMap.getMicrosecondsPerQuarterNote(960));
+        assertEquals(960, tempoMap.microsToTick(2000000));
+        assertEquals(960, tempoMap.cursor().microsToTick(2000000));
+    }
+
+    @Test
+    public void testCursorMatchesBinarySearch() throws MidiException {
+        TempoMap tempoMap = new TempoMap(createSequence());
+        TempoMap.Cursor cursor = tempoMap.cursor();
+
+        for (long tick = 0; tick < 3000; tick += 7) {
+            assertEquals(tempoMap.tickToMicros(tick), cursor.tickToMicros(tick));
+        }
+        for (long micros = 0; micros < 4000000; micros += 997) {
+            assertEquals(tempoMap.microsToTick(micros), cursor.microsToTick(micros));
+        }
+
+        assertEquals(tempoMap.tickToMicros(100), cursor.tickToMicros(100));
+        assertEquals(tempoMap.microsToTick(100), cursor.microsToTick(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTick() {
+        new TempoMap(new Sequence()).tickToMicros(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCursorNegativeTime() {
+        new TempoMap(new Sequence()).cursor().microsToTick(-1);
+    }
+
+    private static Sequence createSequence() throws MidiException {
+        Sequence sequence = new Sequence(480);
+        Track conductor = sequence.createTrack();
+        conductor.add(new MidiEvent(MetaMessage.tempoMessage(60), 0));
+        conductor.add(new MidiEvent(MetaMessage.textMessage("fast"), 500));
+        conductor.add(new MidiEvent(MetaMessage.tempoMessage(120), 960));
+
+        Track notes = sequence.createTrack(Track.Storage.PACKED);
+        notes.add(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 0));
+        notes.add(new MidiEvent(MetaMessage.tempoMessage(120), 1440));
+        notes.add(new MidiEvent(MetaMessage.tempoMessage(240), 1920));
+        return sequence;
+    }
+}
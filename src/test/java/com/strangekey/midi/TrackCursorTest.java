@@ -0,0 +1,153 @@
+/**
+ * Copyright 2010 Leeor Engel.
+ *
+ * @author Leeor Engel
+ */
+package com.strangekey.midi;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackCursorTest {
+
+    @Test
+    public void testCursor() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = createTrack(storage);
+            TrackCursor cursor = track.cursor();
+
+            assertTrue(cursor.next());
+            assertEquals(0, cursor.index());
+            assertEquals(10, cursor.tick());
+            assertEquals(10, cursor.deltaTick());
+            assertTrue(cursor.isChannelMessage());
+            assertEquals(0x91, cursor.status());
+            assertEquals(60, cursor.data1());
+            assertEquals(100, cursor.data2());
+            assertEquals(-1, cursor.metaType());
+            assertEquals(0, cursor.payloadLength());
+
+            assertTrue(cursor.next());
+            assertEquals(20, cursor.tick());
+            assertEquals(10, cursor.deltaTick());
+            assertEquals(0xC2, cursor.status());
+            assertEquals(5, cursor.data1());
+            assertEquals(0, cursor.data2());
+
+            assertTrue(cursor.next());
+            assertEquals(20, cursor.tick());
+            assertEquals(0, cursor.deltaTick());
+            assertTrue(cursor.isMetaMessage());
+            assertEquals(0xFF, cursor.status());
+            assertEquals(1, cursor.metaType());
+            assertEquals(5, cursor.payloadLength());
+            assertEquals('h', cursor.payloadByte(0));
+            byte[] payload = new byte[7];
+            assertEquals(5, cursor.copyPayload(payload, 1));
+            assertTrue(Arrays.equals("hello".getBytes(), Arrays.copyOfRange(payload, 1, 6)));
+
+            assertTrue(cursor.next());
+            assertTrue(cursor.isSysexMessage());
+            assertEquals(0xF0, cursor.status());
+            ByteBuffer buffer = ByteBuffer.allocate(cursor.payloadLength());
+            cursor.copyPayload(buffer);
+            assertTrue(Arrays.equals(new byte[]{0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7}, buffer.array()));
+
+            assertTrue(cursor.next());
+            assertTrue(cursor.isEndOfTrack());
+            assertEquals(50, cursor.tick());
+            assertEquals(20, cursor.deltaTick());
+            assertEquals(0, cursor.payloadLength());
+
+            assertFalse(cursor.next());
+            assertEquals(4, cursor.index());
+        }
+    }
+
+    @Test
+    public void testResetAndReuse() throws MidiException {
+        Track one = createTrack(Track.Storage.PACKED);
+        Track two = new Track();
+        two.add(new MidiEvent(ChannelMessage.noteOff(3, 40, 0), 7));
+
+        TrackCursor cursor = one.cursor();
+        int count = 0;
+        while (cursor.next()) {
+            count++;
+        }
+        assertEquals(one.size(), count);
+
+        cursor.reset();
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.index());
+        assertEquals(10, cursor.deltaTick());
+
+        cursor.reset(two);
+        assertTrue(cursor.next());
+        assertEquals(0x83, cursor.status());
+        assertEquals(7, cursor.deltaTick());
+        assertTrue(cursor.next());
+        assertTrue(cursor.isEndOfTrack());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testPayloadsReadFromFileAreNotCopied() throws MidiException, IOException {
+        Sequence sequence = new Sequence();
+        addEvents(sequence.createTrack());
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        MidiFileWriter.write(sequence, file);
+
+        Sequence read = MidiFileReader.read(ByteBuffer.wrap(file.toByteArray()));
+        Track track = read.getTrackAt(0);
+        TrackCursor cursor = track.cursor();
+        while (cursor.next()) {
+            if (cursor.isMetaMessage() && !cursor.isEndOfTrack()) {
+                assertEquals('h', cursor.payloadByte(0));
+                byte[] payload = new byte[cursor.payloadLength()];
+                cursor.copyPayload(payload, 0);
+                assertTrue(Arrays.equals("hello".getBytes(), payload));
+            } else if (cursor.isSysexMessage()) {
+                ByteBuffer buffer = ByteBuffer.allocate(cursor.payloadLength());
+                cursor.copyPayload(buffer);
+                assertTrue(Arrays.equals(new byte[]{0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7}, buffer.array()));
+            }
+        }
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        MidiFileWriter.write(read, written);
+        assertTrue(Arrays.equals(file.toByteArray(), written.toByteArray()));
+
+        assertTrue(((MetaMessage) track.get(2).getMessage()).getPayload().isView());
+        assertTrue(((SysexMessage) track.get(3).getMessage()).getPayload().isView());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPayloadByteOutOfRange() throws MidiException {
+        TrackCursor cursor = createTrack(Track.Storage.OBJECTS).cursor();
+        cursor.next();
+        cursor.payloadByte(0);
+    }
+
+    private static Track createTrack(Track.Storage storage) throws MidiException {
+        Track track = new Track(storage);
+        addEvents(track);
+        return track;
+    }
+
+    private static void addEvents(Track track) throws MidiException {
+        track.add(new MidiEvent(ChannelMessage.noteOn(1, 60, 100), 10));
+        track.add(new MidiEvent(ChannelMessage.programChange(2, 5), 20));
+        track.add(new MidiEvent(MetaMessage.textMessage("hello"), 20));
+        track.add(new MidiEvent(SysexMessage.sysexMessage(new byte[]{0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7}), 30));
+        track.updateEndOfTrackTimeIndex(50);
+    }
+}
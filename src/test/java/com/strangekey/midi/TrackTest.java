@@ -7,10 +7,25 @@ package com.strangekey.midi;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TrackTest {
 
@@ -22,7 +37,11 @@ public class TrackTest {
     }
 
     private void assertEventIsEndOfTrack(MidiEvent event) {
-        assertEquals(event.getTimeIndex(), 0);
+        assertEventIsEndOfTrack(event, 0);
+    }
+
+    private void assertEventIsEndOfTrack(MidiEvent event, long timeIndex) {
+        assertEquals(event.getTimeIndex(), timeIndex);
         assertEquals(event.getMessage().getLength(), 3);
         assertTrue(Arrays.equals(event.getMessage().getData(), new byte[]{-1, 47, 0}));
     }
@@ -46,6 +65,82 @@ public class TrackTest {
         track.add(new MidiEvent(ChannelMessage.programChange(0, 60), -1));
     }
 
+    @Test
+    public void testAddEventDeltaTimeTooLong() throws MidiException {
+        Track track = new Track();
+        track.add(new MidiEvent(ChannelMessage.programChange(0, 60), 0));
+        int length = track.getLength();
+        try {
+            track.add(new MidiEvent(ChannelMessage.programChange(0, 61), 0x10000000));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            track.add(new MidiEvent(Track.endOfTrackMessage(), 0x10000000));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(2, track.size());
+        assertEquals(0, track.getTotalTime());
+        assertEquals(length, track.getLength());
+
+        track.add(new MidiEvent(ChannelMessage.programChange(0, 61), 0x0FFFFFFF));
+        track.add(new MidiEvent(ChannelMessage.programChange(0, 62), 0x1FFFFFFE));
+        assertEquals(4, track.size());
+    }
+
+    @Test
+    public void testAddAllDeltaTimeTooLong() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = new Track(storage);
+            track.add(new MidiEvent(ChannelMessage.programChange(0, 60), 0x0FFFFFFF));
+            int length = track.getLength();
+            try {
+                track.addAll(Arrays.asList(new MidiEvent(ChannelMessage.programChange(0, 61), 0x20000000),
+                        new MidiEvent(ChannelMessage.programChange(0, 62), 0x10)));
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertEquals(2, track.size());
+            assertEquals(length, track.getLength());
+
+            // each batch event is within reach of a stored event
+            track.addAll(Arrays.asList(new MidiEvent(ChannelMessage.programChange(0, 61), 0x1FFFFFFE),
+                    new MidiEvent(Track.endOfTrackMessage(), 0x2FFFFFFD)));
+            assertEquals(3, track.size());
+            assertEquals(0x2FFFFFFD, track.getTotalTime());
+        }
+    }
+
+    @Test
+    public void testRemoveLeavingDeltaTimeTooLong() throws MidiException {
+        Track track = new Track();
+        track.add(new MidiEvent(ChannelMessage.programChange(0, 60), 0));
+        track.add(new MidiEvent(ChannelMessage.programChange(0, 61), 0x0FFFFFFF));
+        track.add(new MidiEvent(ChannelMessage.programChange(0, 62), 0x1FFFFFFE));
+        int length = track.getLength();
+        try {
+            track.removeRange(1, 0x1FFFFFFE);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            track.removeRange(0x0FFFFFFF, 0x20000000);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(4, track.size());
+        assertEquals(length, track.getLength());
+
+        assertEquals(1, track.removeRange(0x10000000, 0x20000000));
+        assertEquals(3, track.size());
+    }
+
     @Test
     public void testAddEvents() throws MidiException {
         Track track = new Track();
@@ -172,6 +267,461 @@ public class TrackTest {
 
     }
 
+    @Test
+    public void testCreatePackedTrack() {
+        Track track = new Track(Track.Storage.PACKED);
+        assertTrue(track.size() == 1);
+        assertEventIsEndOfTrack(track.get(0));
+    }
+
+    @Test
+    public void testPackedTrackEquivalence() throws MidiException {
+        Track objectTrack = new Track(Track.Storage.OBJECTS);
+        Track packedTrack = new Track(Track.Storage.PACKED);
+
+        for (Track track : new Track[]{objectTrack, packedTrack}) {
+            track.add(new MidiEvent(MetaMessage.tempoMessage(120), 0));
+            track.add(new MidiEvent(ChannelMessage.programChange(3, 21), 0));
+            track.add(new MidiEvent(ChannelMessage.noteOn(3, 67, 80), 500));
+            track.add(new MidiEvent(ChannelMessage.noteOff(3, 67, 0), 192));
+            track.add(new MidiEvent(MetaMessage.lyricTextMessage(getLongText(300)), 250));
+            track.add(new MidiEvent(ChannelMessage.polyphonicKeyPressure(15, 127, 127), 1000));
+        }
+
+        assertEquals(objectTrack.size(), packedTrack.size());
+        assertEquals(objectTrack.getLength(), packedTrack.getLength());
+        assertEquals(objectTrack.getTotalTime(), packedTrack.getTotalTime());
+
+        for (int i = 0; i < objectTrack.size(); i++) {
+            assertEquals(objectTrack.get(i), packedTrack.get(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPackedTrackUnsupportedMessage() {
+        Track track = new Track(Track.Storage.PACKED);
+        MidiMessage customMessage = new MidiMessage() {
+
+            @Override
+            public byte[] getData() {
+                return new byte[]{(byte) 0xF6};
+            }
+
+            @Override
+            public byte[] toBytes() {
+                return getData();
+            }
+
+            @Override
+            public int getLength() {
+                return 1;
+            }
+
+            @Override
+            public int writeTo(byte[] dst, int offset) {
+                dst[offset] = getData()[0];
+                return 1;
+            }
+
+            @Override
+            public void writeTo(ByteBuffer dst) {
+                dst.put(getData());
+            }
+        };
+        track.add(new MidiEvent(customMessage, 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetEventPastEndOfTrack() {
+        Track track = new Track(Track.Storage.PACKED);
+        track.get(1);
+    }
+
+    @Test
+    public void testAddAllInsertionOrderEquivalence() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track trackOne = new Track(storage);
+            trackOne.add(new MidiEvent(ChannelMessage.programChange(0, 1), 0));
+            trackOne.add(new MidiEvent(ChannelMessage.noteOn(0, 67, 80), 0));
+            trackOne.add(new MidiEvent(ChannelMessage.noteOff(0, 67, 80), 192));
+            trackOne.add(new MidiEvent(ChannelMessage.noteOn(0, 78, 80), 169));
+            trackOne.add(new MidiEvent(ChannelMessage.noteOff(0, 78, 80), 361));
+            trackOne.add(new MidiEvent(ChannelMessage.noteOn(0, 80, 80), 169));
+            trackOne.add(new MidiEvent(MetaMessage.tempoMessage(90), 20));
+
+            Track trackTwo = new Track(storage);
+            trackTwo.add(new MidiEvent(ChannelMessage.programChange(0, 1), 0));
+            trackTwo.add(new MidiEvent(ChannelMessage.noteOff(0, 67, 80), 192));
+            assertTrue(trackTwo.addAll(Arrays.asList(
+                    new MidiEvent(ChannelMessage.noteOn(0, 67, 80), 0),
+                    new MidiEvent(ChannelMessage.noteOn(0, 78, 80), 169),
+                    new MidiEvent(ChannelMessage.noteOff(0, 78, 80), 361),
+                    new MidiEvent(ChannelMessage.noteOn(0, 80, 80), 169),
+                    new MidiEvent(MetaMessage.tempoMessage(90), 20))));
+
+            assertEquals(trackOne.size(), trackTwo.size());
+            assertEquals(trackOne.getLength(), trackTwo.getLength());
+            assertEquals(361, trackTwo.getTotalTime());
+
+            for (int i = 0; i < trackOne.getNumEvents(); i++) {
+                assertEquals(trackOne.get(i), trackTwo.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testAddAllArrayRangeWithEndOfTrackEvent() throws MidiException {
+        Track track = new Track();
+        MidiEvent endOfTrackEvent = new MidiEvent(track.get(0).getMessage(), 900);
+        MidiEvent[] events = new MidiEvent[]{
+                null,
+                new MidiEvent(ChannelMessage.noteOn(0, 60, 80), 200),
+                endOfTrackEvent,
+                new MidiEvent(ChannelMessage.noteOn(0, 62, 80), 100),
+                null};
+
+        assertTrue(track.addAll(events, 1, 4));
+        assertEquals(3, track.size());
+        assertEquals(100, track.get(0).getTimeIndex());
+        assertEquals(200, track.get(1).getTimeIndex());
+        assertEquals(900, track.getTotalTime());
+        assertEventIsEndOfTrack(track.get(2), 900);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddAllInvalidTimeIndex() throws MidiException {
+        Track track = new Track();
+        track.addAll(Arrays.asList(new MidiEvent(ChannelMessage.programChange(0, 60), 5),
+                new MidiEvent(ChannelMessage.programChange(0, 60), -1)));
+    }
+
+    @Test
+    public void testGetLengthAfterInsertionChangesFollowingDeltaTime() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = new Track(storage);
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 60, 50), 0));
+            track.add(new MidiEvent(ChannelMessage.noteOff(0, 60, 50), 200));
+            assertEquals(getEncodedLength(track), track.getLength());
+
+            // splits the two byte delta of 200 into two single byte deltas
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 62, 50), 100));
+            assertEquals(getEncodedLength(track), track.getLength());
+
+            track.add(new MidiEvent(MetaMessage.tempoMessage(100), 0));
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 64, 50), 40000));
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 65, 50), 20000));
+            track.add(new MidiEvent(track.get(0).getMessage(), 1));
+            assertEquals(getEncodedLength(track), track.getLength());
+
+            track.addAll(Arrays.asList(new MidiEvent(ChannelMessage.noteOn(0, 66, 50), 150),
+                    new MidiEvent(ChannelMessage.noteOn(0, 67, 50), 50000)));
+            assertEquals(getEncodedLength(track), track.getLength());
+        }
+    }
+
+    @Test
+    public void testReadWhileAdding() throws Exception {
+        for (Track.Storage storage : Track.Storage.values()) {
+            final Track track = new Track(storage);
+            final AtomicBoolean done = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int previousLength = 0;
+                        while (!done.get()) {
+                            int size = track.size();
+                            for (int i = Math.max(0, size - 100); i < size; i++) {
+                                MidiEvent event = track.get(i);
+                                assertTrue(event.getTimeIndex() >= 0 && event.getTimeIndex() <= track.getTotalTime());
+                            }
+                            int length = track.getLength();
+                            assertTrue(length >= previousLength);
+                            previousLength = length;
+                            assertTrue(track.getTotalTime() >= 0);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            reader.start();
+
+            for (int i = 0; i < 20000; i++) {
+                track.add(new MidiEvent(ChannelMessage.noteOn(i % 16, i % 128, 100), i));
+                if (i % 1000 == 0) {
+                    track.add(new MidiEvent(ChannelMessage.noteOff(0, 60, 0), i / 2));
+                }
+            }
+            done.set(true);
+            reader.join();
+
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            assertEquals(20020 + 1, track.size());
+            assertEquals(getEncodedLength(track), track.getLength());
+        }
+    }
+
+    @Test
+    public void testIndexOfTick() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = new Track(storage);
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 10));
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 62, 100), 20));
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 64, 100), 20));
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 65, 100), 30));
+
+            assertEquals(0, track.indexOfTick(0));
+            assertEquals(0, track.indexOfTick(10));
+            assertEquals(1, track.indexOfTick(11));
+            assertEquals(1, track.indexOfTick(20));
+            assertEquals(3, track.indexOfTick(30));
+            assertEquals(5, track.indexOfTick(31));
+        }
+    }
+
+    @Test
+    public void testSubView() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = new Track(storage);
+            for (int i = 0; i < 100; i++) {
+                track.add(new MidiEvent(ChannelMessage.noteOn(0, i, 100), i * 10));
+            }
+
+            TrackView view = track.subView(95, 200);
+            assertEquals(10, view.size());
+            assertEquals(10, view.getFromIndex());
+            for (int i = 0; i < view.size(); i++) {
+                assertEquals(track.get(10 + i), view.get(i));
+            }
+
+            TrackView tail = track.subView(990, 5000);
+            assertEquals(2, tail.size());
+            assertTrue(Track.isEndOfTrack(tail.get(1).getMessage()));
+            assertEquals(0, track.subView(991, 5000).size());
+            assertEquals(0, track.subView(50, 50).size());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSubViewGetOutOfRange() throws MidiException {
+        Track track = new Track();
+        track.add(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 10));
+        track.subView(0, 10).get(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubViewInvalidRange() {
+        new Track().subView(10, 5);
+    }
+
+    @Test
+    public void testRemove() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = new Track(storage);
+            MidiEvent noteOn = new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 10);
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 62, 100), 10));
+            track.add(noteOn);
+            track.add(new MidiEvent(MetaMessage.textMessage("x"), 200));
+
+            assertTrue(track.remove(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), 10)));
+            assertFalse(track.remove(noteOn));
+            assertFalse(track.remove(track.get(track.size() - 1)));
+            assertEquals(3, track.size());
+            assertEquals(200, track.getTotalTime());
+            assertEquals(getEncodedLength(track), track.getLength());
+
+            assertTrue(track.remove(new MidiEvent(ChannelMessage.noteOn(0, 62, 100), 10)));
+            assertEquals(getEncodedLength(track), track.getLength());
+        }
+    }
+
+    @Test
+    public void testRemoveRange() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = new Track(storage);
+            for (int i = 0; i < 1000; i++) {
+                track.add(new MidiEvent(ChannelMessage.noteOn(0, i % 128, 100), i * 100));
+            }
+
+            assertEquals(10, track.removeRange(500, 1500));
+            assertEquals(991, track.size());
+            assertEquals(400, track.get(4).getTimeIndex());
+            assertEquals(1500, track.get(5).getTimeIndex());
+            assertEquals(getEncodedLength(track), track.getLength());
+
+            assertEquals(900, track.removeRange(2000, 92000));
+            assertEquals(0, track.removeRange(2000, 92000));
+            assertEquals(91, track.size());
+            assertEquals(1900, track.get(9).getTimeIndex());
+            assertEquals(92000, track.get(10).getTimeIndex());
+            assertEquals(99900, track.getTotalTime());
+            assertEquals(getEncodedLength(track), track.getLength());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRemoveRangeInvalid() {
+        new Track().removeRange(5, 4);
+    }
+
+    @Test
+    public void testRandomEdits() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Random random = new Random(7);
+            Track track = new Track(storage);
+            List<MidiEvent> expected = new ArrayList<MidiEvent>();
+
+            for (int i = 0; i < 20000; i++) {
+                MidiEvent event = new MidiEvent(ChannelMessage.noteOn(i % 16, random.nextInt(128), 100), random.nextInt(100000));
+                track.add(event);
+                int index = expected.size();
+                while (index > 0 && expected.get(index - 1).getTimeIndex() > event.getTimeIndex()) {
+                    index--;
+                }
+                expected.add(index, event);
+
+                if (i % 3 == 0) {
+                    MidiEvent removed = expected.remove(random.nextInt(expected.size()));
+                    assertTrue(track.remove(removed));
+                }
+            }
+
+            assertEquals(expected.size() + 1, track.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), track.get(i));
+            }
+            assertEquals(getEncodedLength(track), track.getLength());
+        }
+    }
+
+    @Test
+    public void testRandomBulkEdits() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Random random = new Random(11);
+            Track track = new Track(storage);
+            List<MidiEvent> expected = new ArrayList<MidiEvent>();
+
+            for (int round = 0; round < 60; round++) {
+                int batchSize = round % 10 == 0 ? 20000 : random.nextInt(300);
+                List<MidiEvent> batch = new ArrayList<MidiEvent>();
+                for (int i = 0; i < batchSize; i++) {
+                    batch.add(new MidiEvent(ChannelMessage.noteOn(i % 16, random.nextInt(128), 100), random.nextInt(1000000)));
+                }
+                track.addAll(batch);
+                // a stable sort keeps the added events after the ones already on their time index
+                expected.addAll(batch);
+                Collections.sort(expected, new Comparator<MidiEvent>() {
+                    @Override
+                    public int compare(MidiEvent one, MidiEvent two) {
+                        return Long.compare(one.getTimeIndex(), two.getTimeIndex());
+                    }
+                });
+
+                final long fromTick = random.nextInt(1000000);
+                final long toTick = fromTick + (round % 3 == 0 ? random.nextInt(100000) : random.nextInt(2000));
+                int numEvents = expected.size();
+                expected.removeIf(new Predicate<MidiEvent>() {
+                    @Override
+                    public boolean test(MidiEvent event) {
+                        return event.getTimeIndex() >= fromTick && event.getTimeIndex() < toTick;
+                    }
+                });
+                int numRemoved = numEvents - expected.size();
+                assertEquals(numRemoved, track.removeRange(fromTick, toTick));
+                assertEquals(expected.size() + 1, track.size());
+                assertEquals(getEncodedLength(track), track.getLength());
+            }
+
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), track.get(i));
+            }
+            assertEquals(getEncodedLength(track), track.getLength());
+        }
+    }
+
+    private int getEncodedLength(Track track) {
+        int length = 0;
+        long previousTimeIndex = 0;
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            length += event.getMessage().getLength();
+            length += MidiFileUtils.getVariableLengthFieldBytes(event.getTimeIndex() - previousTimeIndex).length;
+            previousTimeIndex = event.getTimeIndex();
+        }
+        return length;
+    }
+
+    private String getLongText(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testSpliterator() throws MidiException {
+        for (Track.Storage storage : Track.Storage.values()) {
+            Track track = new Track(storage);
+            for (int i = 0; i < 1000; i++) {
+                track.add(new MidiEvent(ChannelMessage.noteOn(i % 16, i % 128, 100), i));
+            }
+
+            Spliterator<MidiEvent> spliterator = track.spliterator();
+            assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED));
+            assertEquals(1001, spliterator.getExactSizeIfKnown());
+
+            Spliterator<MidiEvent> prefix = spliterator.trySplit();
+            assertEquals(500, prefix.estimateSize());
+            assertEquals(501, spliterator.estimateSize());
+            final List<MidiEvent> events = new ArrayList<MidiEvent>();
+            prefix.forEachRemaining(new Consumer<MidiEvent>() {
+                @Override
+                public void accept(MidiEvent event) {
+                    events.add(event);
+                }
+            });
+            while (spliterator.tryAdvance(new Consumer<MidiEvent>() {
+                @Override
+                public void accept(MidiEvent event) {
+                    events.add(event);
+                }
+            })) {
+            }
+            assertEquals(track.size(), events.size());
+            for (int i = 0; i < events.size(); i++) {
+                assertEquals(track.get(i), events.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelStream() throws MidiException {
+        Track track = new Track(Track.Storage.CHUNKED);
+        for (int i = 0; i < 5000; i++) {
+            track.add(new MidiEvent(ChannelMessage.noteOn(0, 60, 100), i * 2));
+        }
+
+        ToLongFunction<MidiEvent> timeIndex = new ToLongFunction<MidiEvent>() {
+            @Override
+            public long applyAsLong(MidiEvent event) {
+                return event.getTimeIndex();
+            }
+        };
+        assertEquals(track.stream().mapToLong(timeIndex).sum(), track.parallelStream().mapToLong(timeIndex).sum());
+        assertEquals(track.size(), track.parallelStream().count());
+
+        List<MidiEvent> events = track.parallelStream().collect(Collectors.<MidiEvent>toList());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(track.get(i), events.get(i));
+        }
+    }
+
     private int getEndOfTrackEventLength() {
         return 4;
     }